@@ -0,0 +1,67 @@
+package org.embulk.filter.timestamp_format;
+
+import java.nio.ByteBuffer;
+
+// Reusable CharSequence view of ASCII bytes such as a msgpack string of a json value
+//
+// Timestamp strings are almost always ASCII, so parsers can read the bytes without decoding them into
+// a String. A String is created only when a parser requires it (e.g., jruby parser, or an error message),
+// and it is kept until the next reset. Not thread-safe.
+class AsciiCharSequence implements CharSequence
+{
+    private byte[] bytes = new byte[64];
+    private int length = 0;
+    private String string = null;
+
+    // @return returns false if the bytes include a non-ASCII byte, then the view must not be used
+    boolean reset(ByteBuffer buffer)
+    {
+        int size = buffer.remaining();
+        if (bytes.length < size) {
+            bytes = new byte[Math.max(size, bytes.length * 2)];
+        }
+        buffer.get(bytes, 0, size);
+        this.length = size;
+        this.string = null;
+        for (int i = 0; i < size; i++) {
+            if (bytes[i] < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int length()
+    {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index)
+    {
+        if (index >= length) {
+            throw new IndexOutOfBoundsException(String.valueOf(index));
+        }
+        return (char) bytes[index];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end)
+    {
+        return toString().substring(start, end);
+    }
+
+    @Override
+    public String toString()
+    {
+        if (string == null) {
+            char[] chars = new char[length];
+            for (int i = 0; i < length; i++) {
+                chars[i] = (char) bytes[i];
+            }
+            string = new String(chars);
+        }
+        return string;
+    }
+}
@@ -1,10 +1,7 @@
 package org.embulk.filter.timestamp_format;
 
 import io.github.medjed.jsonpathcompiler.expressions.path.PropertyPathToken;
-import org.embulk.filter.timestamp_format.cast.DoubleCast;
-import org.embulk.filter.timestamp_format.cast.LongCast;
-import org.embulk.filter.timestamp_format.cast.StringCast;
-import org.embulk.filter.timestamp_format.cast.TimestampCast;
+import org.embulk.filter.timestamp_format.cast.ColumnCast;
 import org.embulk.filter.timestamp_format.TimestampFormatFilterPlugin.ColumnConfig;
 import org.embulk.filter.timestamp_format.TimestampFormatFilterPlugin.PluginTask;
 import org.embulk.spi.Column;
@@ -16,7 +13,6 @@ import org.embulk.spi.time.Timestamp;
 import org.embulk.spi.type.DoubleType;
 import org.embulk.spi.type.LongType;
 import org.embulk.spi.type.StringType;
-import org.embulk.spi.type.TimestampType;
 import org.embulk.spi.type.Type;
 import org.joda.time.DateTimeZone;
 import org.msgpack.value.Value;
@@ -38,6 +34,8 @@ public class ColumnCaster
     private final HashMap<String, TimestampFormatter> timestampFormatterMap = new HashMap<>();
     private final HashMap<String, TimestampUnit> fromTimestampUnitMap = new HashMap<>();
     private final HashMap<String, TimestampUnit> toTimestampUnitMap = new HashMap<>();
+    // outputColumn index => ColumnCast resolved on start-up, null if the column is not cast
+    private final ColumnCast[] columnCasts;
     private final JsonVisitor jsonVisitor;
 
     ColumnCaster(PluginTask task, Schema inputSchema, Schema outputSchema, PageReader pageReader, PageBuilder pageBuilder)
@@ -52,6 +50,7 @@ public class ColumnCaster
         buildTimestampFormatterMap();
         buildFromTimestampUnitMap();
         buildToTimestampUnitMap();
+        this.columnCasts = buildColumnCasts();
 
         JsonCaster jsonCaster = new JsonCaster(task, timestampParserMap, timestampFormatterMap, fromTimestampUnitMap, toTimestampUnitMap);
         this.jsonVisitor = new JsonVisitor(task, jsonCaster);
@@ -73,22 +72,42 @@ public class ColumnCaster
         List<String> formatList = columnConfig.getFromFormat().or(task.getDefaultFromTimestampFormat());
         List<String> newFormatList = new ArrayList<>(formatList);
         String name = columnConfig.getName();
-        if (task.getTimeStampParser().equals("auto_java")) {
+        boolean converted = false;
+        if (TimestampParser.isAutoJava(task.getTimeStampParser())) {
+            converted = true;
             for (int i = 0; i < formatList.size(); i++) {
                 String format = formatList.get(i);
-                if (!format.contains("%")) {
+                if (!StrftimeFormat.isRubyFormat(format)) {
                     continue;
                 }
                 String javaFormat = TimestampFormatConverter.toJavaFormat(format);
                 if (javaFormat == null) {
-                    logger.info(String.format("%s: Failed to convert ruby parser to java parser: \"%s\", Use ruby parser as is", name, format));
+                    converted = false;
+                    logger.info(String.format("%s: Failed to convert ruby parser to java parser: \"%s\" (%s), Use ruby parser as is with %s",
+                            name, format, String.join(", ", TimestampFormatConverter.unsupportedDirectives(format)),
+                            TimestampParser.hasFastParser(format, timezone) ? "a compiled fast path" : "no fast path"));
                 } else {
                     logger.debug(String.format("%s: Convert ruby parser \"%s\" to java parser \"%s\"", name, format, javaFormat));
                     newFormatList.set(i, javaFormat);
                 }
             }
-        }
-        return new TimestampParser(newFormatList, timezone);
+            // NOTE: java formats are not used together with ruby formats, so converts all or nothing
+            if (!converted) {
+                newFormatList = new ArrayList<>(formatList);
+            }
+            logger.info(String.format("%s: Use %s parsers", name, converted ? "java" : "ruby"));
+        }
+        TimestampParser.Options options = new TimestampParser.Options()
+                .adaptiveOrder(TimestampParser.isAdaptiveOrder(columnConfig.getFromFormatOrder().or(task.getDefaultFromFormatOrder())))
+                .cacheSize(columnConfig.getFromCacheSize().or(task.getDefaultFromCacheSize()))
+                .fromStringUnit(columnConfig.getFromStringUnit().or(task.getDefaultFromStringUnit()).orNull());
+        if (converted && task.getAutoJavaVerifyRate() > 0.0 && !newFormatList.equals(formatList)) {
+            return new VerifyingTimestampParser(name, newFormatList, formatList, timezone, options,
+                    task.getAutoJavaVerifyRate(), task.getAutoJavaVerifyMaxMismatches().or(-1L));
+        }
+        return new TimestampParser(newFormatList, timezone, options
+                .useJavaTime(TimestampParser.isJavaTime(task.getTimeStampParser()))
+                .calibrateEngines(TimestampParser.isAutoFastest(task.getTimeStampParser())));
     }
 
     private void buildTimestampFormatterMap()
@@ -106,7 +125,7 @@ public class ColumnCaster
     {
         String format = columnConfig.getToFormat().or(task.getDefaultToTimestampFormat());
         DateTimeZone timezone = columnConfig.getToTimeZone().or(task.getDefaultToTimeZone());
-        return new TimestampFormatter(format, timezone);
+        return new TimestampFormatter(format, timezone, TimestampParser.isJavaTime(task.getTimeStampParser()));
     }
 
     private void buildFromTimestampUnitMap()
@@ -141,99 +160,67 @@ public class ColumnCaster
         return columnConfig.getToUnit().or(task.getDefaultToTimestampUnit());
     }
 
-    public void setFromLong(Column outputColumn, long value)
+    private ColumnCast[] buildColumnCasts()
     {
-        Type outputType = outputColumn.getType();
-        TimestampUnit fromUnit = fromTimestampUnitMap.get(outputColumn.getName());
-        if (outputType instanceof StringType) {
-            TimestampFormatter timestampFormatter = timestampFormatterMap.get(outputColumn.getName());
-            pageBuilder.setString(outputColumn, LongCast.asString(value, fromUnit, timestampFormatter));
-        }
-        else if (outputType instanceof TimestampType) {
-            pageBuilder.setTimestamp(outputColumn, LongCast.asTimestamp(value, fromUnit));
-        }
-        else if (outputType instanceof LongType) {
-            TimestampUnit toUnit = toTimestampUnitMap.get(outputColumn.getName());
-            pageBuilder.setLong(outputColumn, LongCast.asLong(value, fromUnit, toUnit));
+        ColumnCast[] columnCasts = new ColumnCast[outputSchema.getColumnCount()];
+        for (Column column : outputSchema.getColumns()) {
+            String name = column.getName();
+            if (timestampParserMap.containsKey(name)) {
+                columnCasts[column.getIndex()] = ColumnCast.of(column.getType(), timestampParserMap.get(name),
+                        timestampFormatterMap.get(name), fromTimestampUnitMap.get(name), toTimestampUnitMap.get(name));
+            }
         }
-        else if (outputType instanceof DoubleType) {
-            TimestampUnit toUnit = toTimestampUnitMap.get(outputColumn.getName());
-            pageBuilder.setDouble(outputColumn, LongCast.asDouble(value, fromUnit, toUnit));
+        return columnCasts;
+    }
+
+    public void finish()
+    {
+        for (ColumnConfig columnConfig : task.getColumns()) {
+            TimestampParser parser = timestampParserMap.get(columnConfig.getName());
+            if (parser.getCacheHits() >= 0) {
+                logger.info(String.format("%s: parse cache hits %d, misses %d",
+                        columnConfig.getName(), parser.getCacheHits(), parser.getCacheMisses()));
+            }
+            if (parser instanceof VerifyingTimestampParser) {
+                VerifyingTimestampParser verifyingParser = (VerifyingTimestampParser) parser;
+                logger.info(String.format("%s: auto_java verified %d values, mismatches %d",
+                        columnConfig.getName(), verifyingParser.getVerified(), verifyingParser.getMismatches()));
+            }
+            for (String result : parser.getCalibrationResults()) {
+                logger.info(String.format("%s: %s", columnConfig.getName(), result));
+            }
+            if (parser.getDetectedFormat() != null) {
+                logger.info(String.format("%s: detected from_format \"%s\"", columnConfig.getName(), parser.getDetectedFormat()));
+            }
         }
-        else {
-            assert false;
+    }
+
+    // Called at the end of a task even if it failed
+    public void close()
+    {
+        for (TimestampParser parser : timestampParserMap.values()) {
+            parser.close();
         }
     }
 
+    public void setFromLong(Column outputColumn, long value)
+    {
+        columnCasts[outputColumn.getIndex()].setFromLong(pageBuilder, outputColumn, value);
+    }
+
     public void setFromDouble(Column outputColumn, double value)
     {
-        Type outputType = outputColumn.getType();
-        TimestampUnit fromUnit = fromTimestampUnitMap.get(outputColumn.getName());
-        if (outputType instanceof StringType) {
-            TimestampFormatter timestampFormatter = timestampFormatterMap.get(outputColumn.getName());
-            pageBuilder.setString(outputColumn, DoubleCast.asString(value, fromUnit, timestampFormatter));
-        }
-        else if (outputType instanceof TimestampType) {
-            pageBuilder.setTimestamp(outputColumn, DoubleCast.asTimestamp(value, fromUnit));
-        }
-        else if (outputType instanceof LongType) {
-            TimestampUnit toUnit = toTimestampUnitMap.get(outputColumn.getName());
-            pageBuilder.setLong(outputColumn, DoubleCast.asLong(value, fromUnit, toUnit));
-        }
-        else if (outputType instanceof DoubleType) {
-            TimestampUnit toUnit = toTimestampUnitMap.get(outputColumn.getName());
-            pageBuilder.setDouble(outputColumn, DoubleCast.asDouble(value, fromUnit, toUnit));
-        }
-        else {
-            assert false;
-        }
+        columnCasts[outputColumn.getIndex()].setFromDouble(pageBuilder, outputColumn, value);
     }
 
     public void setFromString(Column outputColumn, String value)
     {
-        Type outputType = outputColumn.getType();
-        TimestampParser timestampParser = timestampParserMap.get(outputColumn.getName());
-        if (outputType instanceof StringType) {
-            TimestampFormatter timestampFormatter = timestampFormatterMap.get(outputColumn.getName());
-            pageBuilder.setString(outputColumn, StringCast.asString(value, timestampParser, timestampFormatter));
-        }
-        else if (outputType instanceof TimestampType) {
-            pageBuilder.setTimestamp(outputColumn, StringCast.asTimestamp(value, timestampParser));
-        }
-        else if (outputType instanceof LongType) {
-            TimestampUnit toUnit = toTimestampUnitMap.get(outputColumn.getName());
-            pageBuilder.setLong(outputColumn, StringCast.asLong(value, timestampParser, toUnit));
-        }
-        else if (outputType instanceof DoubleType) {
-            TimestampUnit toUnit = toTimestampUnitMap.get(outputColumn.getName());
-            pageBuilder.setDouble(outputColumn, StringCast.asDouble(value, timestampParser, toUnit));
-        }
-        else {
-            assert false;
-        }
+        columnCasts[outputColumn.getIndex()].setFromString(pageBuilder, outputColumn, value);
     }
 
     public void setFromTimestamp(Column outputColumn, Timestamp value)
     {
-        Type outputType = outputColumn.getType();
-        if (outputType instanceof StringType) {
-            TimestampFormatter timestampFormatter = timestampFormatterMap.get(outputColumn.getName());
-            pageBuilder.setString(outputColumn, TimestampCast.asString(value, timestampFormatter));
-        }
-        else if (outputType instanceof TimestampType) {
-            pageBuilder.setTimestamp(outputColumn, value);
-        }
-        else if (outputType instanceof LongType) {
-            TimestampUnit toUnit = toTimestampUnitMap.get(outputColumn.getName());
-            pageBuilder.setLong(outputColumn, TimestampCast.asLong(value, toUnit));
-        }
-        else if (outputType instanceof DoubleType) {
-            TimestampUnit toUnit = toTimestampUnitMap.get(outputColumn.getName());
-            pageBuilder.setDouble(outputColumn, TimestampCast.asDouble(value, toUnit));
-        }
-        else {
-            assert false;
-        }
+        columnCasts[outputColumn.getIndex()].setFromTimestamp(pageBuilder, outputColumn, value);
     }
 
     public void setFromJson(Column outputColumn, Value value)
@@ -14,7 +14,6 @@ import org.embulk.spi.Exec;
 import org.embulk.spi.PageBuilder;
 import org.slf4j.Logger;
 
-import java.util.HashMap;
 import java.util.HashSet;
 
 public class ColumnVisitorImpl
@@ -26,8 +25,8 @@ public class ColumnVisitorImpl
     private final Schema outputSchema;
     private final PageReader pageReader;
     private final PageBuilder pageBuilder;
-    private final HashSet<String> shouldCastSet = new HashSet<>();
-    private final HashMap<String, Column> outputColumnMap = new HashMap<>();
+    // inputColumn index => outputColumn, null if the column is not cast
+    private final Column[] outputColumns;
     private final ColumnCaster columnCaster;
 
     ColumnVisitorImpl(PluginTask task, Schema inputSchema, Schema outputSchema,
@@ -39,14 +38,14 @@ public class ColumnVisitorImpl
         this.pageReader   = pageReader;
         this.pageBuilder  = pageBuilder;
 
-        buildShouldCastSet();
-        buildOutputColumnMap();
+        this.outputColumns = buildOutputColumns();
         this.columnCaster = new ColumnCaster(task, inputSchema, outputSchema, pageReader, pageBuilder);
     }
 
-    private void buildShouldCastSet()
+    private Column[] buildOutputColumns()
     {
         // columnName => Boolean to avoid unnecessary cast
+        HashSet<String> shouldCastSet = new HashSet<>();
         for (ColumnConfig columnConfig : task.getColumns()) {
             String name = columnConfig.getName();
             if (PathCompiler.isProbablyJsonPath(name)) {
@@ -56,19 +55,24 @@ public class ColumnVisitorImpl
             }
             shouldCastSet.add(name);
         }
+        // NOTE: the output schema has the same columns as the input schema in the same order
+        Column[] outputColumns = new Column[inputSchema.getColumnCount()];
+        for (Column column : outputSchema.getColumns()) {
+            if (shouldCastSet.contains(column.getName())) {
+                outputColumns[column.getIndex()] = column;
+            }
+        }
+        return outputColumns;
     }
 
-    private boolean shouldCast(String name)
+    public void finish()
     {
-        return shouldCastSet.contains(name);
+        columnCaster.finish();
     }
 
-    private void buildOutputColumnMap()
+    public void close()
     {
-        // columnName => outputColumn
-        for (Column column : outputSchema.getColumns()) {
-            this.outputColumnMap.put(column.getName(), column);
-        }
+        columnCaster.close();
     }
 
     private interface PageBuildable
@@ -112,8 +116,8 @@ public class ColumnVisitorImpl
     @Override
     public void longColumn(final Column inputColumn)
     {
-        String name = inputColumn.getName();
-        if (! shouldCast(name)){
+        final Column outputColumn = outputColumns[inputColumn.getIndex()];
+        if (outputColumn == null) {
             if (pageReader.isNull(inputColumn)) {
                 pageBuilder.setNull(inputColumn);
             }
@@ -122,7 +126,6 @@ public class ColumnVisitorImpl
             }
         }
         else {
-            final Column outputColumn = outputColumnMap.get(name);
             PageBuildable op = new PageBuildable() {
                 public void run() throws DataException {
                     columnCaster.setFromLong(outputColumn, pageReader.getLong(inputColumn));
@@ -135,8 +138,8 @@ public class ColumnVisitorImpl
     @Override
     public void doubleColumn(final Column inputColumn)
     {
-        String name = inputColumn.getName();
-        if (! shouldCast(name)){
+        final Column outputColumn = outputColumns[inputColumn.getIndex()];
+        if (outputColumn == null) {
             if (pageReader.isNull(inputColumn)) {
                 pageBuilder.setNull(inputColumn);
             }
@@ -145,7 +148,6 @@ public class ColumnVisitorImpl
             }
         }
         else {
-            final Column outputColumn = outputColumnMap.get(inputColumn.getName());
             PageBuildable op = new PageBuildable() {
                 public void run() throws DataException {
                     columnCaster.setFromDouble(outputColumn, pageReader.getDouble(inputColumn));
@@ -158,8 +160,8 @@ public class ColumnVisitorImpl
     @Override
     public void stringColumn(final Column inputColumn)
     {
-        String name = inputColumn.getName();
-        if (! shouldCast(name)){
+        final Column outputColumn = outputColumns[inputColumn.getIndex()];
+        if (outputColumn == null) {
             if (pageReader.isNull(inputColumn)) {
                 pageBuilder.setNull(inputColumn);
             }
@@ -168,7 +170,6 @@ public class ColumnVisitorImpl
             }
         }
         else {
-            final Column outputColumn = outputColumnMap.get(inputColumn.getName());
             PageBuildable op = new PageBuildable() {
                 public void run() throws DataException {
                     columnCaster.setFromString(outputColumn, pageReader.getString(inputColumn));
@@ -181,8 +182,8 @@ public class ColumnVisitorImpl
     @Override
     public void timestampColumn(final Column inputColumn)
     {
-        String name = inputColumn.getName();
-        if (! shouldCast(name)){
+        final Column outputColumn = outputColumns[inputColumn.getIndex()];
+        if (outputColumn == null) {
             if (pageReader.isNull(inputColumn)) {
                 pageBuilder.setNull(inputColumn);
             }
@@ -191,7 +192,6 @@ public class ColumnVisitorImpl
             }
         }
         else {
-            final Column outputColumn = outputColumnMap.get(inputColumn.getName());
             PageBuildable op = new PageBuildable() {
                 public void run() throws DataException {
                     columnCaster.setFromTimestamp(outputColumn, pageReader.getTimestamp(inputColumn));
@@ -204,8 +204,8 @@ public class ColumnVisitorImpl
     @Override
     public void jsonColumn(final Column inputColumn)
     {
-        String name = inputColumn.getName();
-        if (! shouldCast(name)){
+        final Column outputColumn = outputColumns[inputColumn.getIndex()];
+        if (outputColumn == null) {
             if (pageReader.isNull(inputColumn)) {
                 pageBuilder.setNull(inputColumn);
             }
@@ -214,7 +214,6 @@ public class ColumnVisitorImpl
             }
         }
         else {
-            final Column outputColumn = outputColumnMap.get(inputColumn.getName());
             PageBuildable op = new PageBuildable() {
                 public void run() throws DataException {
                     columnCaster.setFromJson(outputColumn, pageReader.getJson(inputColumn));
@@ -0,0 +1,64 @@
+package org.embulk.filter.timestamp_format;
+
+import org.embulk.spi.time.Timestamp;
+import org.joda.time.DateTimeZone;
+
+import java.util.List;
+
+// Parser which merges ISO-8601 like formats of from_format into one
+//
+// Date, time and fraction are scanned only once, and the formats are branched only where they diverge,
+// i.e., the separator between date and time, the fraction, and the zone part. The first format of
+// from_format which matches is used, so the result is the same as trying formats in order, while
+// the cost does not depend on the number of formats.
+class CombinedIso8601Parser implements FormatParser
+{
+    private final Iso8601Parser[] parsers;
+    private final DatePrefixCache dateCache;
+
+    CombinedIso8601Parser(List<Iso8601Parser> parsers, DateTimeZone defaultZone)
+    {
+        this.parsers = parsers.toArray(new Iso8601Parser[0]);
+        this.dateCache = new DatePrefixCache(defaultZone);
+    }
+
+    @Override
+    public Timestamp parse(CharSequence text)
+    {
+        long dateSeconds = dateCache.parseDate(text);
+        if (dateSeconds == Iso8601Parser.NO_MATCH) {
+            return null;
+        }
+        int secondOfDay = Iso8601Parser.parseTimeOfDay(text);
+        char dateTimeSeparator = secondOfDay < 0 ? 0 : text.charAt(10);
+        int fractionEnd = secondOfDay < 0 ? -1 : Iso8601Parser.fractionEnd(text, 19);
+        int nano = fractionEnd < 0 ? 0 : Iso8601Parser.fractionNano(text, 20, fractionEnd);
+
+        for (Iso8601Parser parser : parsers) {
+            long seconds = dateSeconds;
+            int pos = 10;
+            int parserNano = 0;
+            if (parser.getDateTimeSeparator() != 0) {
+                if (parser.getDateTimeSeparator() != dateTimeSeparator) {
+                    continue;
+                }
+                seconds += secondOfDay;
+                pos = 19;
+                if (parser.hasFraction()) {
+                    if (fractionEnd < 0 || fractionEnd - 20 > parser.getMaxFractionDigits()) {
+                        continue;
+                    }
+                    pos = fractionEnd;
+                    parserNano = nano;
+                }
+            }
+            int offset = parser.parseZone(text, pos);
+            if (offset == Iso8601Parser.NO_MATCH_OFFSET) {
+                continue;
+            }
+            // null if local time is in a DST gap, then the caller tries formats in order
+            return parser.toTimestamp(seconds, parserNano, offset, dateCache);
+        }
+        return null;
+    }
+}
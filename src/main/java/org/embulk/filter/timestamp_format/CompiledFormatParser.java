@@ -0,0 +1,621 @@
+package org.embulk.filter.timestamp_format;
+
+import org.embulk.spi.time.Timestamp;
+import org.joda.time.DateTimeZone;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Parser compiled from a jruby or java format into a flat array of field reader steps
+//
+// The format is interpreted only once on compile, and parse() just runs the steps over the text, so no
+// intermediate objects are created per value. Like Iso8601Parser, it accepts only a strict subset of
+// what jruby or joda parsers accept, and returns null for anything else so that the caller can fall
+// back to the original parser. Formats including unsupported directives are not compiled.
+public class CompiledFormatParser implements FormatParser
+{
+    private static final int LITERAL = 0;
+    private static final int YEAR = 1;
+    private static final int TWO_DIGIT_YEAR = 2; // jruby %y
+    private static final int MONTH = 3;
+    private static final int MONTH_SHORT_NAME = 4;
+    private static final int MONTH_LONG_NAME = 5;
+    private static final int DAY = 6;
+    private static final int DAY_OF_YEAR = 7;
+    private static final int DAY_OF_WEEK_SHORT_NAME = 8;
+    private static final int DAY_OF_WEEK_LONG_NAME = 9;
+    private static final int HOUR = 10;
+    private static final int HOUR_OF_HALFDAY = 11;
+    private static final int HALFDAY = 12;
+    private static final int MINUTE = 13;
+    private static final int SECOND = 14;
+    private static final int FRACTION = 15;
+    private static final int OFFSET = 16;
+
+    static final String[] MONTH_SHORT_NAMES = {
+        "Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"};
+    static final String[] MONTH_LONG_NAMES = {
+        "January", "February", "March", "April", "May", "June",
+        "July", "August", "September", "October", "November", "December"};
+    // Monday is 1 as ISO-8601
+    static final String[] DAY_OF_WEEK_SHORT_NAMES = {"Mon", "Tue", "Wed", "Thu", "Fri", "Sat", "Sun"};
+    static final String[] DAY_OF_WEEK_LONG_NAMES = {
+        "Monday", "Tuesday", "Wednesday", "Thursday", "Friday", "Saturday", "Sunday"};
+    private static final int[] DAYS_IN_MONTH = {0, 31, 29, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31};
+
+    private static class Step
+    {
+        final int type;
+        final char literal;
+        final int minDigits;
+        final int maxDigits;
+        final boolean spacePadded; // jruby %e, %k, %l
+        final boolean greedy; // original parser reads more digits than maxDigits
+        final int fixedDigits; // digits read if followed by another number
+
+        Step(int type, char literal, int minDigits, int maxDigits, boolean spacePadded, boolean greedy)
+        {
+            this(type, literal, minDigits, maxDigits, spacePadded, greedy, maxDigits);
+        }
+
+        Step(int type, char literal, int minDigits, int maxDigits, boolean spacePadded, boolean greedy, int fixedDigits)
+        {
+            this.type = type;
+            this.literal = literal;
+            this.minDigits = minDigits;
+            this.maxDigits = maxDigits;
+            this.spacePadded = spacePadded;
+            this.greedy = greedy;
+            this.fixedDigits = fixedDigits;
+        }
+
+        Step withFixedDigits(int fixedDigits)
+        {
+            return new Step(type, literal, minDigits, maxDigits, spacePadded, greedy, fixedDigits);
+        }
+
+        boolean isNumeric()
+        {
+            return type != LITERAL && type != MONTH_SHORT_NAME && type != MONTH_LONG_NAME &&
+                type != DAY_OF_WEEK_SHORT_NAME && type != DAY_OF_WEEK_LONG_NAME &&
+                type != HALFDAY && type != OFFSET;
+        }
+    }
+
+    private final Step[] steps;
+    private final boolean milliResolution;
+    private final boolean acceptUtcOffsetName;
+    private final ZoneOffsetCache zoneCache;
+
+    private CompiledFormatParser(List<Step> steps, boolean milliResolution, boolean acceptUtcOffsetName,
+                                 DateTimeZone defaultZone)
+    {
+        this.steps = steps.toArray(new Step[0]);
+        this.milliResolution = milliResolution;
+        this.acceptUtcOffsetName = acceptUtcOffsetName;
+        this.zoneCache = new ZoneOffsetCache(defaultZone);
+    }
+
+    // @return returns null if the format includes unsupported directives
+    public static CompiledFormatParser of(String format, DateTimeZone defaultZone)
+    {
+        boolean isJRubyFormat = StrftimeFormat.isRubyFormat(format);
+        List<Step> steps = isJRubyFormat ? compileRubyFormat(format) : compileJavaFormat(format);
+        if (steps == null || !isCompleteDate(steps)) {
+            return null;
+        }
+        // adjacent numbers such as %Y%m%d or yyyyMMdd are read in fixed width by the original parsers
+        for (int i = 0; i < steps.size() - 1; i++) {
+            Step step = steps.get(i);
+            if (step.isNumeric() && steps.get(i + 1).isNumeric()) {
+                if (step.spacePadded || step.type == FRACTION) {
+                    return null;
+                }
+                steps.set(i, new Step(step.type, step.literal, step.fixedDigits, step.fixedDigits, false, false));
+            }
+        }
+        boolean milliResolution = !isJRubyFormat && !format.contains("nnnnnnnnn");
+        return new CompiledFormatParser(steps, milliResolution, isJRubyFormat, defaultZone);
+    }
+
+    // jruby and joda parsers have different defaults for a partial date, so it is not supported
+    private static boolean isCompleteDate(List<Step> steps)
+    {
+        boolean hasYear = false;
+        boolean hasMonth = false;
+        boolean hasDay = false;
+        boolean hasDayOfYear = false;
+        boolean hasHourOfHalfday = false;
+        boolean hasHalfday = false;
+        for (Step step : steps) {
+            switch (step.type) {
+                case YEAR: case TWO_DIGIT_YEAR:
+                    hasYear = true;
+                    break;
+                case MONTH: case MONTH_SHORT_NAME: case MONTH_LONG_NAME:
+                    hasMonth = true;
+                    break;
+                case DAY:
+                    hasDay = true;
+                    break;
+                case DAY_OF_YEAR:
+                    hasDayOfYear = true;
+                    break;
+                case HOUR_OF_HALFDAY:
+                    hasHourOfHalfday = true;
+                    break;
+                case HALFDAY:
+                    hasHalfday = true;
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (hasHourOfHalfday != hasHalfday) {
+            return false;
+        }
+        if (hasDayOfYear) {
+            return hasYear && !hasMonth && !hasDay;
+        }
+        return (hasYear && hasMonth && hasDay) || (!hasYear && !hasMonth && !hasDay);
+    }
+
+    private static List<Step> compileRubyFormat(String format)
+    {
+        List<Step> steps = new ArrayList<>();
+        for (StrftimeFormat.Token token : StrftimeFormat.tokenizeExpanded(format)) {
+            if (token.isLiteral()) {
+                String literal = token.getLiteral();
+                for (int i = 0; i < literal.length(); i++) {
+                    steps.add(literal(literal.charAt(i)));
+                }
+                continue;
+            }
+            // flags such as %-d change only outputs of formatters, but a width or colons change what are read
+            // except %:z which reads the same offsets as %z
+            if (token.getWidth() >= 0 || (token.getColons() > 0 && !(token.getColons() == 1 && token.getConversion() == 'z'))) {
+                return null;
+            }
+            if (!addRubyDirective(steps, token.getConversion())) {
+                return null;
+            }
+        }
+        return steps;
+    }
+
+    private static boolean addRubyDirective(List<Step> steps, char conversion)
+    {
+        switch (conversion) {
+            case 'Y':
+                steps.add(number(YEAR, 4, 4, true));
+                return true;
+            case 'y':
+                steps.add(number(TWO_DIGIT_YEAR, 2, 2, false));
+                return true;
+            case 'm':
+                steps.add(number(MONTH, 1, 2, false));
+                return true;
+            case 'b': case 'h':
+                steps.add(text(MONTH_SHORT_NAME));
+                return true;
+            case 'B':
+                steps.add(text(MONTH_LONG_NAME));
+                return true;
+            case 'd':
+                steps.add(number(DAY, 1, 2, false));
+                return true;
+            case 'e':
+                steps.add(spacePaddedNumber(DAY));
+                return true;
+            case 'j':
+                steps.add(number(DAY_OF_YEAR, 1, 3, false));
+                return true;
+            case 'a':
+                steps.add(text(DAY_OF_WEEK_SHORT_NAME));
+                return true;
+            case 'A':
+                steps.add(text(DAY_OF_WEEK_LONG_NAME));
+                return true;
+            case 'H':
+                steps.add(number(HOUR, 1, 2, false));
+                return true;
+            case 'k':
+                steps.add(spacePaddedNumber(HOUR));
+                return true;
+            case 'I':
+                steps.add(number(HOUR_OF_HALFDAY, 1, 2, false));
+                return true;
+            case 'l':
+                steps.add(spacePaddedNumber(HOUR_OF_HALFDAY));
+                return true;
+            case 'p': case 'P':
+                steps.add(text(HALFDAY));
+                return true;
+            case 'M':
+                steps.add(number(MINUTE, 1, 2, false));
+                return true;
+            case 'S':
+                steps.add(number(SECOND, 1, 2, false));
+                return true;
+            case 'L': case 'N':
+                steps.add(number(FRACTION, 1, 9, true));
+                return true;
+            case 'z':
+                steps.add(text(OFFSET));
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static List<Step> compileJavaFormat(String format)
+    {
+        List<Step> steps = new ArrayList<>();
+        int length = format.length();
+        for (int i = 0; i < length; i++) {
+            char c = format.charAt(i);
+            if (c == '\'') {
+                i++;
+                if (i < length && format.charAt(i) == '\'') {
+                    steps.add(literal('\''));
+                    continue;
+                }
+                while (i < length) {
+                    char q = format.charAt(i);
+                    if (q == '\'') {
+                        if (i + 1 < length && format.charAt(i + 1) == '\'') {
+                            i++;
+                        }
+                        else {
+                            break;
+                        }
+                    }
+                    steps.add(literal(q));
+                    i++;
+                }
+                if (i >= length) {
+                    return null; // unterminated quote
+                }
+                continue;
+            }
+            if (!((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z'))) {
+                steps.add(literal(c));
+                continue;
+            }
+            int count = 1;
+            while (i + 1 < length && format.charAt(i + 1) == c) {
+                i++;
+                count++;
+            }
+            Step step = javaField(c, count);
+            if (step == null) {
+                return null;
+            }
+            // joda fixes the width of a year followed by another number at the letter count, and reads other
+            // numbers up to the letter count or their usual digits, e.g., M of yyyyMd reads 11 of 2016111
+            steps.add(step.isNumeric() ? step.withFixedDigits(Math.max(count, step.maxDigits)) : step);
+        }
+        return steps;
+    }
+
+    private static Step javaField(char letter, int count)
+    {
+        switch (letter) {
+            case 'y':
+                return count == 4 ? number(YEAR, 4, 4, true) : null; // yy depends on the current year
+            case 'M':
+                if (count >= 4) {
+                    return text(MONTH_LONG_NAME);
+                }
+                return count == 3 ? text(MONTH_SHORT_NAME) : number(MONTH, 1, 2, false);
+            case 'd':
+                return number(DAY, 1, 2, false);
+            case 'D':
+                return number(DAY_OF_YEAR, 1, 3, false);
+            case 'E':
+                return count >= 4 ? text(DAY_OF_WEEK_LONG_NAME) : (count == 3 ? text(DAY_OF_WEEK_SHORT_NAME) : null);
+            case 'H':
+                return number(HOUR, 1, 2, false);
+            case 'h':
+                return number(HOUR_OF_HALFDAY, 1, 2, false);
+            case 'a':
+                return text(HALFDAY);
+            case 'm':
+                return number(MINUTE, 1, 2, false);
+            case 's':
+                return number(SECOND, 1, 2, false);
+            case 'S':
+                return number(FRACTION, 1, count, false); // joda reads as many digits as S-run at most
+            case 'n':
+                return count == 9 ? number(FRACTION, 1, 9, false) : null;
+            case 'Z':
+                return count <= 2 ? text(OFFSET) : null;
+            default:
+                return null;
+        }
+    }
+
+    private static Step literal(char c)
+    {
+        return new Step(LITERAL, c, 0, 0, false, false);
+    }
+
+    private static Step number(int type, int minDigits, int maxDigits, boolean greedy)
+    {
+        return new Step(type, (char) 0, minDigits, maxDigits, false, greedy);
+    }
+
+    private static Step spacePaddedNumber(int type)
+    {
+        return new Step(type, (char) 0, 1, 2, true, false);
+    }
+
+    private static Step text(int type)
+    {
+        return new Step(type, (char) 0, 0, 0, false, false);
+    }
+
+    @Override
+    public Timestamp parse(CharSequence text)
+    {
+        int length = text.length();
+        int pos = 0;
+        long year = 1970;
+        int month = 1;
+        int day = 1;
+        int dayOfYear = -1;
+        int dayOfWeek = -1;
+        int hour = 0;
+        int halfday = -1;
+        int minute = 0;
+        int second = 0;
+        int nano = 0;
+        int offset = Iso8601Parser.DEFAULT_ZONE_OFFSET;
+
+        for (Step step : steps) {
+            if (step.type == LITERAL) {
+                if (pos >= length || text.charAt(pos) != step.literal) {
+                    return null;
+                }
+                pos++;
+                continue;
+            }
+            int value = 0;
+            int end = pos;
+            if (step.isNumeric()) {
+                int maxDigits = step.maxDigits;
+                if (step.spacePadded && pos < length && text.charAt(pos) == ' ') {
+                    end++;
+                    maxDigits = 1;
+                }
+                int start = end;
+                while (end < length && end - start < maxDigits) {
+                    char c = text.charAt(end);
+                    if (c < '0' || c > '9') {
+                        break;
+                    }
+                    value = value * 10 + (c - '0');
+                    end++;
+                }
+                int numDigits = end - start;
+                if (numDigits < step.minDigits || numDigits == 0) {
+                    return null;
+                }
+                if (step.greedy && end < length && text.charAt(end) >= '0' && text.charAt(end) <= '9') {
+                    return null; // the original parser would read more digits
+                }
+                if (step.type == FRACTION) {
+                    for (int i = numDigits; i < 9; i++) {
+                        value *= 10;
+                    }
+                }
+            }
+            switch (step.type) {
+                case YEAR:
+                    year = value;
+                    break;
+                case TWO_DIGIT_YEAR:
+                    year = value < 69 ? 2000 + value : 1900 + value;
+                    break;
+                case MONTH:
+                    month = value;
+                    break;
+                case MONTH_SHORT_NAME:
+                    month = matchName(text, pos, MONTH_SHORT_NAMES);
+                    end = month < 0 ? -1 : pos + MONTH_SHORT_NAMES[month - 1].length();
+                    break;
+                case MONTH_LONG_NAME:
+                    month = matchName(text, pos, MONTH_LONG_NAMES);
+                    end = month < 0 ? -1 : pos + MONTH_LONG_NAMES[month - 1].length();
+                    break;
+                case DAY:
+                    day = value;
+                    break;
+                case DAY_OF_YEAR:
+                    dayOfYear = value;
+                    break;
+                case DAY_OF_WEEK_SHORT_NAME:
+                    dayOfWeek = matchName(text, pos, DAY_OF_WEEK_SHORT_NAMES);
+                    end = dayOfWeek < 0 ? -1 : pos + DAY_OF_WEEK_SHORT_NAMES[dayOfWeek - 1].length();
+                    break;
+                case DAY_OF_WEEK_LONG_NAME:
+                    dayOfWeek = matchName(text, pos, DAY_OF_WEEK_LONG_NAMES);
+                    end = dayOfWeek < 0 ? -1 : pos + DAY_OF_WEEK_LONG_NAMES[dayOfWeek - 1].length();
+                    break;
+                case HOUR:
+                    if (value > 23) {
+                        return null;
+                    }
+                    hour = value;
+                    break;
+                case HOUR_OF_HALFDAY:
+                    if (value < 1 || value > 12) {
+                        return null;
+                    }
+                    hour = value % 12;
+                    break;
+                case HALFDAY:
+                    halfday = parseHalfday(text, pos);
+                    end = halfday < 0 ? -1 : pos + 2;
+                    break;
+                case MINUTE:
+                    if (value > 59) {
+                        return null;
+                    }
+                    minute = value;
+                    break;
+                case SECOND:
+                    if (value > 59) {
+                        return null; // including leap second
+                    }
+                    second = value;
+                    break;
+                case FRACTION:
+                    nano = value;
+                    break;
+                case OFFSET:
+                    end = offsetEnd(text, pos);
+                    if (end >= 0) {
+                        offset = offsetSeconds(text, pos, end);
+                    }
+                    break;
+                default:
+                    return null;
+            }
+            if (end < 0) {
+                return null;
+            }
+            pos = end;
+        }
+        if (pos != length) {
+            return null;
+        }
+
+        if (halfday == 1) {
+            hour += 12;
+        }
+        long days;
+        if (dayOfYear >= 0) {
+            if (dayOfYear < 1 || dayOfYear > (Iso8601Parser.isLeapYear(year) ? 366 : 365)) {
+                return null;
+            }
+            days = Iso8601Parser.daysFromCivil(year, 1, 1) + dayOfYear - 1;
+        }
+        else {
+            if (month < 1 || month > 12 || day < 1 || day > DAYS_IN_MONTH[month] ||
+                    (month == 2 && day == 29 && !Iso8601Parser.isLeapYear(year))) {
+                return null;
+            }
+            days = Iso8601Parser.daysFromCivil(year, month, day);
+        }
+        if (dayOfWeek >= 0 && dayOfWeek != (int) Math.floorMod(days + 3, 7L) + 1) {
+            return null; // the original parsers resolve the conflict in their own ways
+        }
+        long localSeconds = days * 86400L + hour * 3600 + minute * 60 + second;
+        if (milliResolution) {
+            nano = nano / 1000000 * 1000000;
+        }
+        if (offset != Iso8601Parser.DEFAULT_ZONE_OFFSET) {
+            return Timestamp.ofEpochSecond(localSeconds - offset, nano);
+        }
+        int zoneOffset = zoneCache.getOffsetSecondsFromLocal(localSeconds);
+        if (zoneOffset == ZoneOffsetCache.GAP) {
+            return null; // local time in a DST gap, leave it to the original parser
+        }
+        return Timestamp.ofEpochSecond(localSeconds - zoneOffset, nano);
+    }
+
+    // @return returns 1-origin index of names, or -1
+    private static int matchName(CharSequence text, int pos, String[] names)
+    {
+        for (int i = 0; i < names.length; i++) {
+            String name = names[i];
+            int length = name.length();
+            if (pos + length > text.length()) {
+                continue;
+            }
+            boolean matched = true;
+            for (int j = 0; j < length; j++) {
+                if (text.charAt(pos + j) != name.charAt(j)) {
+                    matched = false;
+                    break;
+                }
+            }
+            if (matched && !(pos + length < text.length() && Character.isLetter(text.charAt(pos + length)))) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    // @return returns 0 for AM, 1 for PM, or -1
+    private static int parseHalfday(CharSequence text, int pos)
+    {
+        if (pos + 2 > text.length() || (pos + 2 < text.length() && Character.isLetter(text.charAt(pos + 2)))) {
+            return -1;
+        }
+        char c1 = text.charAt(pos);
+        char c2 = text.charAt(pos + 1);
+        if (c2 != 'M' && c2 != 'm') {
+            return -1;
+        }
+        if (c1 == 'A' || c1 == 'a') {
+            return 0;
+        }
+        if (c1 == 'P' || c1 == 'p') {
+            return 1;
+        }
+        return -1;
+    }
+
+    // Accepts Z, UTC (jruby only), +hh:mm, and +hhmm
+    // @return returns the end position of the offset, or -1
+    private int offsetEnd(CharSequence text, int pos)
+    {
+        int length = text.length();
+        int end;
+        if (pos < length && text.charAt(pos) == 'Z') {
+            end = pos + 1;
+        }
+        else if (acceptUtcOffsetName && pos + 3 <= length &&
+                text.charAt(pos) == 'U' && text.charAt(pos + 1) == 'T' && text.charAt(pos + 2) == 'C') {
+            end = pos + 3;
+        }
+        else {
+            if (pos + 5 > length || (text.charAt(pos) != '+' && text.charAt(pos) != '-')) {
+                return -1;
+            }
+            int minutePos = text.charAt(pos + 3) == ':' ? pos + 4 : pos + 3;
+            end = minutePos + 2;
+            if (end > length || !isDigit(text, pos + 1) || !isDigit(text, pos + 2) ||
+                    !isDigit(text, minutePos) || !isDigit(text, minutePos + 1)) {
+                return -1;
+            }
+            if (text.charAt(pos + 1) > '2' || (text.charAt(pos + 1) == '2' && text.charAt(pos + 2) > '3') ||
+                    text.charAt(minutePos) > '5') {
+                return -1;
+            }
+        }
+        if (end < length && (Character.isLetterOrDigit(text.charAt(end)) || text.charAt(end) == ':')) {
+            return -1; // the original parser would read more
+        }
+        return end;
+    }
+
+    private static int offsetSeconds(CharSequence text, int pos, int end)
+    {
+        if (end - pos < 5) {
+            return 0; // Z or UTC
+        }
+        int hour = (text.charAt(pos + 1) - '0') * 10 + (text.charAt(pos + 2) - '0');
+        int minute = (text.charAt(end - 2) - '0') * 10 + (text.charAt(end - 1) - '0');
+        int seconds = hour * 3600 + minute * 60;
+        return text.charAt(pos) == '-' ? -seconds : seconds;
+    }
+
+    private static boolean isDigit(CharSequence text, int pos)
+    {
+        char c = text.charAt(pos);
+        return c >= '0' && c <= '9';
+    }
+}
@@ -0,0 +1,73 @@
+package org.embulk.filter.timestamp_format;
+
+import org.joda.time.DateTimeZone;
+
+// Memo of the last date prefix (yyyy-MM-dd) of texts and its epoch seconds
+//
+// In time-ordered inputs such as log files, the date changes rarely, so only the time-of-day part has to be
+// parsed per value. The offset of the default timezone is also memoized for the date if the timezone has no
+// transition around the date, so the timezone is not looked up per value either.
+// Not thread-safe, a cache belongs to a parser of a task.
+class DatePrefixCache
+{
+    private static final int PREFIX_LENGTH = 10;
+
+    private final DateTimeZone defaultZone;
+    private final char[] prefix = new char[PREFIX_LENGTH];
+    private long dateSeconds = Iso8601Parser.NO_MATCH;
+    private int dayOffset = Iso8601Parser.DEFAULT_ZONE_OFFSET; // DEFAULT_ZONE_OFFSET if unknown
+
+    DatePrefixCache(DateTimeZone defaultZone)
+    {
+        this.defaultZone = defaultZone;
+    }
+
+    // @return returns seconds of the local date at the beginning of text, or NO_MATCH
+    long parseDate(CharSequence text)
+    {
+        if (dateSeconds != Iso8601Parser.NO_MATCH && text.length() >= PREFIX_LENGTH && matchesPrefix(text)) {
+            return dateSeconds;
+        }
+        long seconds = Iso8601Parser.parseDate(text);
+        if (seconds != Iso8601Parser.NO_MATCH) {
+            for (int i = 0; i < PREFIX_LENGTH; i++) {
+                prefix[i] = text.charAt(i);
+            }
+            dateSeconds = seconds;
+            dayOffset = computeDayOffset(seconds);
+        }
+        return seconds;
+    }
+
+    // @return returns offset seconds of the default timezone if localSeconds is in the last date,
+    // and the offset does not change through the date, otherwise DEFAULT_ZONE_OFFSET
+    int getDayOffset(long localSeconds)
+    {
+        if (localSeconds >= dateSeconds && localSeconds < dateSeconds + 86400) {
+            return dayOffset;
+        }
+        return Iso8601Parser.DEFAULT_ZONE_OFFSET;
+    }
+
+    private boolean matchesPrefix(CharSequence text)
+    {
+        for (int i = PREFIX_LENGTH - 1; i >= 0; i--) { // day changes most often
+            if (text.charAt(i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int computeDayOffset(long localDateSeconds)
+    {
+        // a margin of one day on both sides covers any offset
+        long startMillis = (localDateSeconds - 86400) * 1000;
+        long endMillis = (localDateSeconds + 2 * 86400) * 1000;
+        long transition = defaultZone.nextTransition(startMillis);
+        if (transition > startMillis && transition < endMillis) {
+            return Iso8601Parser.DEFAULT_ZONE_OFFSET;
+        }
+        return defaultZone.getOffset(startMillis) / 1000;
+    }
+}
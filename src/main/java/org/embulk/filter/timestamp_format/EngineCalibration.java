@@ -0,0 +1,104 @@
+package org.embulk.filter.timestamp_format;
+
+import org.embulk.spi.time.Timestamp;
+
+import java.util.List;
+import java.util.function.LongSupplier;
+
+// Calibration of jruby parsers against java parsers of converted formats, for timestamp_parser: auto_fastest
+//
+// While calibrating, a text is parsed with both parsers of a format, and the results and the time taken are
+// recorded. Then, the java parser is chosen for a format only if it agreed with the jruby parser on all samples
+// and it was faster. Not thread-safe, a calibration belongs to a TimestampParser of a task.
+class EngineCalibration
+{
+    private final FormatParser[] javaParsers; // null if the format has no java format
+    private final String[] javaFormats;
+    private final long[] rubyNanos;
+    private final long[] javaNanos;
+    private final int[] samples;
+    private final boolean[] agreed;
+    private final LongSupplier nanoTime;
+
+    EngineCalibration(List<String> formatList, ParserFactory factory)
+    {
+        this(formatList, factory, System::nanoTime);
+    }
+
+    // @param nanoTime the source of time to measure parsers with
+    EngineCalibration(List<String> formatList, ParserFactory factory, LongSupplier nanoTime)
+    {
+        this.nanoTime = nanoTime;
+        int size = formatList.size();
+        this.javaParsers = new FormatParser[size];
+        this.javaFormats = new String[size];
+        this.rubyNanos = new long[size];
+        this.javaNanos = new long[size];
+        this.samples = new int[size];
+        this.agreed = new boolean[size];
+        for (int i = 0; i < size; i++) {
+            String format = formatList.get(i);
+            javaFormats[i] = StrftimeFormat.isRubyFormat(format) ? TimestampFormatConverter.toJavaFormat(format) : null;
+            if (javaFormats[i] != null) {
+                try {
+                    javaParsers[i] = factory.create(javaFormats[i]);
+                    agreed[i] = true;
+                }
+                catch (IllegalArgumentException ex) {
+                    javaFormats[i] = null; // joda-time does not accept the converted format
+                }
+            }
+        }
+    }
+
+    // Creates a java parser of a java format
+    interface ParserFactory
+    {
+        FormatParser create(String javaFormat);
+    }
+
+    // @return returns the result of the jruby parser
+    Timestamp parse(int i, FormatParser rubyParser, CharSequence text)
+    {
+        if (javaParsers[i] == null) {
+            return rubyParser.parse(text);
+        }
+        long start = nanoTime.getAsLong();
+        Timestamp rubyResult = rubyParser.parse(text);
+        long middle = nanoTime.getAsLong();
+        Timestamp javaResult = javaParsers[i].parse(text);
+        long end = nanoTime.getAsLong();
+        rubyNanos[i] += middle - start;
+        javaNanos[i] += end - middle;
+        samples[i]++;
+        if (rubyResult == null ? javaResult != null : !rubyResult.equals(javaResult)) {
+            agreed[i] = false;
+        }
+        return rubyResult;
+    }
+
+    // @return returns true if the java parser should replace the jruby parser of format i
+    boolean isJavaFaster(int i)
+    {
+        return javaParsers[i] != null && agreed[i] && samples[i] > 0 && javaNanos[i] < rubyNanos[i];
+    }
+
+    FormatParser getJavaParser(int i)
+    {
+        return javaParsers[i];
+    }
+
+    // @return returns a description of the decision for a log
+    String describe(int i, String format)
+    {
+        if (javaParsers[i] == null) {
+            return String.format("\"%s\" uses ruby parser, no java format", format);
+        }
+        if (samples[i] == 0) {
+            return String.format("\"%s\" uses ruby parser, no samples", format);
+        }
+        return String.format("\"%s\" uses %s parser (ruby %d ns/value, java \"%s\" %d ns/value%s)",
+                format, isJavaFaster(i) ? "java" : "ruby", rubyNanos[i] / samples[i],
+                javaFormats[i], javaNanos[i] / samples[i], agreed[i] ? "" : ", results differed");
+    }
+}
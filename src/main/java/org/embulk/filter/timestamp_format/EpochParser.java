@@ -0,0 +1,87 @@
+package org.embulk.filter.timestamp_format;
+
+import org.embulk.spi.time.Timestamp;
+
+// Parser of epoch numbers in texts such as "1436713200" or "1436713200123"
+//
+// Used for formats which consist only of %s (seconds) or %Q (milliseconds), and for from_string_unit,
+// so that numeric texts are read into timestamps without going through strptime of jruby.
+class EpochParser implements FormatParser
+{
+    private static final int MAX_DIGITS = 18; // fits into long
+    private static final int[] POW10 = {1, 10, 100, 1000, 10000, 100000, 1000000, 10000000, 100000000, 1000000000};
+
+    private final TimestampUnit unit;
+    private final boolean fraction;
+
+    // @param fraction accepts a fraction of the unit such as "1436713200.123"
+    EpochParser(TimestampUnit unit, boolean fraction)
+    {
+        this.unit = unit;
+        this.fraction = fraction;
+    }
+
+    // @return returns null if the format is not an epoch number
+    static EpochParser of(String format)
+    {
+        if (format.equals("%s")) {
+            return new EpochParser(TimestampUnit.Second, false);
+        }
+        else if (format.equals("%Q")) {
+            return new EpochParser(TimestampUnit.MilliSecond, false);
+        }
+        return null;
+    }
+
+    // @return returns null if text is not a number, or is too large
+    @Override
+    public Timestamp parse(CharSequence text)
+    {
+        int length = text.length();
+        int pos = 0;
+        boolean negative = false;
+        if (pos < length && text.charAt(pos) == '-') { // as jruby strptime of %s and %Q, + is not accepted
+            negative = true;
+            pos++;
+        }
+        int start = pos;
+        long value = 0;
+        while (pos < length) {
+            char c = text.charAt(pos);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            value = value * 10 + (c - '0');
+            pos++;
+        }
+        int digits = pos - start;
+        if (digits == 0 || digits > MAX_DIGITS) {
+            return null;
+        }
+        long fractionNanos = 0; // nanos of a fraction of the unit
+        if (fraction && pos < length && text.charAt(pos) == '.') {
+            pos++;
+            int fractionStart = pos;
+            int fractionValue = 0;
+            while (pos < length && pos - fractionStart < 9) {
+                char c = text.charAt(pos);
+                if (c < '0' || c > '9') {
+                    break;
+                }
+                fractionValue = fractionValue * 10 + (c - '0');
+                pos++;
+            }
+            int fractionDigits = pos - fractionStart;
+            if (fractionDigits == 0) {
+                return null;
+            }
+            fractionNanos = (long) fractionValue * POW10[9 - fractionDigits] / unit.scale();
+        }
+        if (pos != length) {
+            return null;
+        }
+        long seconds = value / unit.scale();
+        long nanos = (value % unit.scale()) * unit.scaleToNano() + fractionNanos;
+        return negative ? Timestamp.ofEpochSecond(-seconds, -nanos) : Timestamp.ofEpochSecond(seconds, nanos);
+    }
+}
@@ -0,0 +1,12 @@
+package org.embulk.filter.timestamp_format;
+
+import org.embulk.spi.time.Timestamp;
+
+// A parser of one format of from_format
+// Failure is reported by returning null rather than throwing an exception, because
+// trying the next format of from_format is not an exceptional path
+interface FormatParser
+{
+    // @return returns null if text does not match the format
+    Timestamp parse(CharSequence text);
+}
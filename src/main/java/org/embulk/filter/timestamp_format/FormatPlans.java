@@ -0,0 +1,88 @@
+package org.embulk.filter.timestamp_format;
+
+import org.joda.time.DateTimeZone;
+
+import java.lang.ref.SoftReference;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+// JVM-wide registry of what parsers and formatters build from formats, shared by tasks
+//
+// A task builds parsers and formatters of all columns on open(), and the local executor runs many tasks of
+// the same formats, so results of the building are kept here. Immutable ones (e.g., signatures, and the order
+// constraints of formats) are shared by all threads. Mutable ones (jruby parsers) are pooled: a task takes
+// parsers from the pool, uses them alone, and returns them at the end of the task, so that the next task in
+// any thread takes them without building. Idle parsers are bounded per format, and are held softly so that
+// they are collected under memory pressure.
+final class FormatPlans
+{
+    private static final ConcurrentHashMap<String, FormatSignature> SIGNATURE_CACHE = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, boolean[][]> SHADOWS_CACHE = new ConcurrentHashMap<>();
+
+    private static final int MAX_IDLE_JRUBY_PARSERS_PER_KEY = 16;
+
+    // (zone, format) => idle jruby parsers
+    private static final ConcurrentHashMap<String, ConcurrentLinkedQueue<SoftReference<org.embulk.spi.time.TimestampParser>>>
+            IDLE_JRUBY_PARSERS = new ConcurrentHashMap<>();
+
+    private FormatPlans() {}
+
+    static FormatSignature signatureOf(String format)
+    {
+        FormatSignature signature = SIGNATURE_CACHE.get(format);
+        if (signature == null) {
+            signature = FormatSignature.of(format);
+            SIGNATURE_CACHE.putIfAbsent(format, signature);
+        }
+        return signature;
+    }
+
+    // @param engine name of the parsers which the shadows are computed with, as results depend on them
+    // @return returns shadows which must not be modified
+    static boolean[][] shadowsOf(String engine, List<String> formatList, DateTimeZone zone, Supplier<boolean[][]> builder)
+    {
+        String key = engine + '\n' + zone.getID() + '\n' + String.join("\n", formatList);
+        boolean[][] shadows = SHADOWS_CACHE.get(key);
+        if (shadows == null) {
+            shadows = builder.get();
+            SHADOWS_CACHE.putIfAbsent(key, shadows);
+        }
+        return shadows;
+    }
+
+    // @return returns a jruby parser of embulk owned by the caller until it is returned by releaseJrubyParser
+    static org.embulk.spi.time.TimestampParser acquireJrubyParser(String format, DateTimeZone zone,
+                                                                   Function<String, org.embulk.spi.time.TimestampParser> builder)
+    {
+        ConcurrentLinkedQueue<SoftReference<org.embulk.spi.time.TimestampParser>> idleParsers =
+                IDLE_JRUBY_PARSERS.get(jrubyParserKey(format, zone));
+        if (idleParsers != null) {
+            SoftReference<org.embulk.spi.time.TimestampParser> reference;
+            while ((reference = idleParsers.poll()) != null) {
+                org.embulk.spi.time.TimestampParser parser = reference.get();
+                if (parser != null) {
+                    return parser;
+                }
+            }
+        }
+        return builder.apply(format);
+    }
+
+    // Returns a parser taken by acquireJrubyParser for other tasks. The caller must not use it any more
+    static void releaseJrubyParser(String format, DateTimeZone zone, org.embulk.spi.time.TimestampParser parser)
+    {
+        ConcurrentLinkedQueue<SoftReference<org.embulk.spi.time.TimestampParser>> idleParsers =
+                IDLE_JRUBY_PARSERS.computeIfAbsent(jrubyParserKey(format, zone), key -> new ConcurrentLinkedQueue<>());
+        if (idleParsers.size() < MAX_IDLE_JRUBY_PARSERS_PER_KEY) { // racy, but bounded roughly
+            idleParsers.offer(new SoftReference<>(parser));
+        }
+    }
+
+    private static String jrubyParserKey(String format, DateTimeZone zone)
+    {
+        return zone.getID() + '\n' + format;
+    }
+}
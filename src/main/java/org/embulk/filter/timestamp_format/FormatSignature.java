@@ -0,0 +1,125 @@
+package org.embulk.filter.timestamp_format;
+
+// Cheap shape of texts which a format can parse, to reject texts without trying the parser
+//
+// The shape consists of the minimum length of texts, and literal separators such as "-", ":", "." which
+// must appear in texts in order. It is computed conservatively, taking it account that parsers are
+// lenient (e.g., numbers of variable digits, zone names, and a space of jruby format matches any spaces),
+// so that a text the parser accepts is never rejected.
+class FormatSignature
+{
+    private final int minLength;
+    private final char[] separators;
+
+    private FormatSignature(int minLength, char[] separators)
+    {
+        this.minLength = minLength;
+        this.separators = separators;
+    }
+
+    public static FormatSignature of(String format)
+    {
+        if (StrftimeFormat.isRubyFormat(format)) {
+            return ofRubyFormat(format);
+        }
+        else {
+            return ofJavaFormat(format);
+        }
+    }
+
+    private static FormatSignature ofRubyFormat(String format)
+    {
+        int minLength = 0;
+        StringBuilder separators = new StringBuilder();
+        for (StrftimeFormat.Token token : StrftimeFormat.tokenizeExpanded(format)) {
+            if (token.isLiteral()) {
+                String literal = token.getLiteral();
+                for (int i = 0; i < literal.length(); i++) {
+                    char c = literal.charAt(i);
+                    if (Character.isWhitespace(c)) {
+                        continue; // matches zero or more spaces
+                    }
+                    minLength++;
+                    if (!Character.isLetterOrDigit(c)) {
+                        separators.append(c);
+                    }
+                }
+            }
+            else if (token.getConversion() == 'n' || token.getConversion() == 't') {
+                continue; // matches zero or more spaces
+            }
+            else if (Character.isLetter(token.getConversion())) {
+                minLength++;
+            }
+        }
+        return new FormatSignature(minLength, separators.toString().toCharArray());
+    }
+
+    private static FormatSignature ofJavaFormat(String format)
+    {
+        int minLength = 0;
+        StringBuilder separators = new StringBuilder();
+        int length = format.length();
+        for (int i = 0; i < length; i++) {
+            char c = format.charAt(i);
+            if (c == '\'') {
+                // quoted literal, and '' is a quote
+                i++;
+                if (i < length && format.charAt(i) == '\'') {
+                    minLength++;
+                    separators.append('\'');
+                    continue;
+                }
+                while (i < length) {
+                    char q = format.charAt(i);
+                    if (q == '\'') {
+                        if (i + 1 < length && format.charAt(i + 1) == '\'') {
+                            i++;
+                        }
+                        else {
+                            break;
+                        }
+                    }
+                    minLength++;
+                    if (!Character.isLetterOrDigit(q)) {
+                        separators.append(q);
+                    }
+                    i++;
+                }
+            }
+            else if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) {
+                // a field such as yyyy takes one character at least
+                while (i + 1 < length && format.charAt(i + 1) == c) {
+                    i++;
+                }
+                minLength++;
+            }
+            else {
+                minLength++;
+                if (!Character.isLetterOrDigit(c)) {
+                    separators.append(c);
+                }
+            }
+        }
+        return new FormatSignature(minLength, separators.toString().toCharArray());
+    }
+
+    public boolean matches(CharSequence text)
+    {
+        int length = text.length();
+        if (length < minLength) {
+            return false;
+        }
+        int pos = 0;
+        for (char separator : separators) {
+            while (pos < length && text.charAt(pos) != separator) {
+                pos++;
+            }
+            if (pos == length) {
+                return false;
+            }
+            pos++;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,190 @@
+package org.embulk.filter.timestamp_format;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Hand-written formatter for the ISO-8601 / RFC3339 family of formats such as
+//
+//   %Y-%m-%dT%H:%M:%S.%6N%:z
+//   %Y-%m-%d %H:%M:%S.%N %z
+//   yyyy-MM-dd'T'HH:mm:ss.SSSZ
+//   yyyy-MM-dd HH:mm:ss.nnnnnnnnn
+//
+// The output is laid out in a fixed-width char array once, and a value only rewrites digits of its fields,
+// computing the civil date with integer arithmetic. Fields of the last value are kept in the array, so a value
+// in the same second only rewrites the fraction, and a value in the same day skips the date.
+// Years out of 1 to 9999 are not supported, and callers use the original formatter for them. Not thread-safe.
+final class Iso8601Formatter
+{
+    private static final Pattern RUBY_FORMAT_PATTERN = Pattern.compile(
+            "(?:%Y-%m-%d|%F)(?:(T| )(?:%H:%M:%S|%T)(?:\\.%([1-9])?([NL]))?( ?%:?z|Z| UTC)?)?");
+    private static final Pattern JAVA_FORMAT_PATTERN = Pattern.compile(
+            "yyyy-MM-dd(?:( |'T')HH:mm:ss(?:\\.(S{1,9}|n{1,9}))?( ?Z{1,2}|'Z'| 'UTC')?)?");
+
+    private static final int MIN_YEAR = 1;
+    private static final int MAX_YEAR = 9999;
+
+    private static final int[] POW10 = {1, 10, 100, 1000, 10000, 100000, 1000000, 10000000, 100000000, 1000000000};
+
+    // two digits of 0 to 99
+    private static final char[] TENS = new char[100];
+    private static final char[] ONES = new char[100];
+
+    static
+    {
+        for (int i = 0; i < 100; i++) {
+            TENS[i] = (char) ('0' + i / 10);
+            ONES[i] = (char) ('0' + i % 10);
+        }
+    }
+
+    private final char[] chars;
+    private final boolean hasTime;
+    private final int fractionDigits; // 0 if none
+    private final boolean milliResolution; // S of Joda-Time prints milli seconds only
+    private final int offsetPosition; // -1 if no offset
+    private final boolean offsetColon;
+
+    private long lastDay = Long.MIN_VALUE;
+    private long lastEpochSecond = Long.MIN_VALUE;
+    private int lastOffsetSeconds;
+
+    private Iso8601Formatter(char dateTimeSeparator, int fractionDigits, boolean milliResolution,
+                             String zonePrefix, boolean hasOffset, boolean offsetColon, String literalSuffix)
+    {
+        StringBuilder template = new StringBuilder("0000-00-00");
+        if (dateTimeSeparator != 0) {
+            template.append(dateTimeSeparator).append("00:00:00");
+            if (fractionDigits > 0) {
+                template.append('.');
+                for (int i = 0; i < fractionDigits; i++) {
+                    template.append('0');
+                }
+            }
+        }
+        template.append(zonePrefix);
+        this.offsetPosition = hasOffset ? template.length() : -1;
+        if (hasOffset) {
+            template.append(offsetColon ? "+00:00" : "+0000");
+        }
+        template.append(literalSuffix);
+        this.chars = template.toString().toCharArray();
+        this.hasTime = dateTimeSeparator != 0;
+        this.fractionDigits = fractionDigits;
+        this.milliResolution = milliResolution;
+        this.offsetColon = offsetColon;
+    }
+
+    // @param useJavaTime java formats are printed by java.time, of which S prints nano seconds
+    // @return returns null if the format is not an ISO-8601 like format
+    static Iso8601Formatter of(String format, boolean useJavaTime)
+    {
+        if (StrftimeFormat.isRubyFormat(format)) {
+            Matcher m = RUBY_FORMAT_PATTERN.matcher(format);
+            if (!m.matches()) {
+                return null;
+            }
+            String zone = m.group(4) == null ? "" : m.group(4);
+            boolean hasOffset = zone.endsWith("z");
+            int digits = 0;
+            if (m.group(3) != null) {
+                digits = m.group(2) != null ? Integer.parseInt(m.group(2)) : m.group(3).equals("N") ? 9 : 3;
+            }
+            return new Iso8601Formatter(
+                    m.group(1) == null ? 0 : m.group(1).charAt(0),
+                    digits,
+                    false,
+                    hasOffset ? zone.substring(0, zone.indexOf('%')) : "",
+                    hasOffset,
+                    zone.contains(":"),
+                    hasOffset ? "" : zone);
+        }
+        else {
+            Matcher m = JAVA_FORMAT_PATTERN.matcher(format);
+            if (!m.matches()) {
+                return null;
+            }
+            String zone = m.group(3) == null ? "" : m.group(3);
+            boolean hasOffset = zone.endsWith("Z") && !zone.endsWith("'Z");
+            return new Iso8601Formatter(
+                    m.group(1) == null ? 0 : (m.group(1).equals(" ") ? ' ' : 'T'),
+                    m.group(2) == null ? 0 : m.group(2).length(),
+                    m.group(2) != null && m.group(2).startsWith("S") && !useJavaTime,
+                    hasOffset ? zone.substring(0, zone.indexOf('Z')) : "",
+                    hasOffset,
+                    zone.endsWith("ZZ"),
+                    hasOffset ? "" : zone.replace("'", ""));
+        }
+    }
+
+    // @return returns false without appending anything if the value is not supported
+    boolean formatTo(long epochSecond, int nano, int offsetSeconds, StringBuilder buffer)
+    {
+        if (epochSecond != lastEpochSecond || offsetSeconds != lastOffsetSeconds) {
+            long localSeconds = epochSecond + offsetSeconds;
+            long days = Math.floorDiv(localSeconds, 86400L);
+            if (days != lastDay && !setDate(days)) {
+                return false;
+            }
+            if (hasTime) {
+                int secondOfDay = (int) (localSeconds - days * 86400L);
+                setTwoDigits(11, secondOfDay / 3600);
+                setTwoDigits(14, secondOfDay / 60 % 60);
+                setTwoDigits(17, secondOfDay % 60);
+            }
+            if (offsetPosition >= 0 && offsetSeconds != lastOffsetSeconds) {
+                setOffset(offsetSeconds);
+            }
+            lastEpochSecond = epochSecond;
+            lastOffsetSeconds = offsetSeconds;
+        }
+        if (fractionDigits > 0) {
+            int value = milliResolution ? nano / 1000000 * 1000000 : nano;
+            value /= POW10[9 - fractionDigits];
+            for (int i = 20 + fractionDigits - 1; i >= 20; i--) {
+                chars[i] = (char) ('0' + value % 10);
+                value /= 10;
+            }
+        }
+        buffer.append(chars);
+        return true;
+    }
+
+    // civil date from days since 1970-01-01, in the proleptic gregorian calendar as Joda-Time
+    private boolean setDate(long days)
+    {
+        long z = days + 719468;
+        long era = Math.floorDiv(z, 146097);
+        int dayOfEra = (int) (z - era * 146097);
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYearFromMarch = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int monthFromMarch = (5 * dayOfYearFromMarch + 2) / 153;
+        int day = dayOfYearFromMarch - (153 * monthFromMarch + 2) / 5 + 1;
+        int month = monthFromMarch < 10 ? monthFromMarch + 3 : monthFromMarch - 9;
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        if (year < MIN_YEAR || year > MAX_YEAR) {
+            return false;
+        }
+        setTwoDigits(0, (int) year / 100);
+        setTwoDigits(2, (int) year % 100);
+        setTwoDigits(5, month);
+        setTwoDigits(8, day);
+        lastDay = days;
+        return true;
+    }
+
+    // +hhmm or +hh:mm, of which seconds are truncated
+    private void setOffset(int offsetSeconds)
+    {
+        int abs = Math.abs(offsetSeconds);
+        chars[offsetPosition] = offsetSeconds < 0 ? '-' : '+';
+        setTwoDigits(offsetPosition + 1, abs / 3600);
+        setTwoDigits(offsetPosition + (offsetColon ? 4 : 3), abs / 60 % 60);
+    }
+
+    private void setTwoDigits(int position, int value)
+    {
+        chars[position] = TENS[value];
+        chars[position + 1] = ONES[value];
+    }
+}
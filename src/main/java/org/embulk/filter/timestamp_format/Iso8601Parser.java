@@ -0,0 +1,349 @@
+package org.embulk.filter.timestamp_format;
+
+import org.embulk.spi.time.Timestamp;
+import org.joda.time.DateTimeZone;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Hand-written parser for the ISO-8601 / RFC3339 family of formats such as
+//
+//   %Y-%m-%d %H:%M:%S.%N %z
+//   %Y-%m-%dT%H:%M:%S%:z
+//   yyyy-MM-dd'T'HH:mm:ss.SSSZ
+//   yyyy-MM-dd HH:mm:ss.nnnnnnnnn
+//
+// Digits are read directly from the CharSequence into epoch seconds and nanos,
+// without creating DateTime, Matcher or exception objects.
+// It accepts only a strict subset of what jruby or joda parsers accept, and returns null
+// for anything else so that the caller can fall back to the original parser.
+public class Iso8601Parser implements FormatParser
+{
+    private static final Pattern RUBY_FORMAT_PATTERN = Pattern.compile(
+            "(?:%Y-%m-%d|%F)(?:(T| )(?:%H:%M:%S|%T)(\\.%N|\\.%L)?(%:?z| %:?z| UTC|Z)?)?");
+    private static final Pattern JAVA_FORMAT_PATTERN = Pattern.compile(
+            "yyyy-MM-dd(?:( |'T')HH:mm:ss(\\.S{1,9}|\\.nnnnnnnnn)?(Z{1,2}| Z{1,2}| 'UTC'|'Z')?)?");
+
+    static final long NO_MATCH = Long.MIN_VALUE;
+    static final int NO_MATCH_OFFSET = Integer.MIN_VALUE;
+    static final int DEFAULT_ZONE_OFFSET = Integer.MAX_VALUE;
+
+    private static final int[] DAYS_IN_MONTH = {0, 31, 29, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31};
+
+    private final char dateTimeSeparator; // 0 if date only
+    private final boolean hasFraction;
+    private final int maxFractionDigits; // joda reads as many digits as S-run at most
+    private final boolean milliResolution;
+    private final boolean hasOffset;
+    private final boolean acceptUtcOffsetName;
+    private final String zonePrefix;
+    private final String literalSuffix;
+    private final ZoneOffsetCache zoneCache;
+    private final DatePrefixCache dateCache;
+
+    private Iso8601Parser(char dateTimeSeparator, boolean hasFraction, int maxFractionDigits, boolean milliResolution,
+                          boolean hasOffset, boolean acceptUtcOffsetName,
+                          String zonePrefix, String literalSuffix, DateTimeZone defaultZone)
+    {
+        this.dateTimeSeparator = dateTimeSeparator;
+        this.hasFraction = hasFraction;
+        this.maxFractionDigits = maxFractionDigits;
+        this.milliResolution = milliResolution;
+        this.hasOffset = hasOffset;
+        this.acceptUtcOffsetName = acceptUtcOffsetName;
+        this.zonePrefix = zonePrefix;
+        this.literalSuffix = literalSuffix;
+        this.zoneCache = new ZoneOffsetCache(defaultZone);
+        this.dateCache = new DatePrefixCache(defaultZone);
+    }
+
+    // @return returns null if the format is not an ISO-8601 like format
+    public static Iso8601Parser of(String format, DateTimeZone defaultZone)
+    {
+        if (StrftimeFormat.isRubyFormat(format)) {
+            Matcher m = RUBY_FORMAT_PATTERN.matcher(format);
+            if (!m.matches()) {
+                return null;
+            }
+            String zone = m.group(3) == null ? "" : m.group(3);
+            boolean hasOffset = zone.endsWith("z");
+            return new Iso8601Parser(
+                    m.group(1) == null ? 0 : m.group(1).charAt(0),
+                    m.group(2) != null,
+                    9,
+                    false,
+                    hasOffset,
+                    true,
+                    hasOffset ? zone.substring(0, zone.indexOf('%')) : "",
+                    hasOffset ? "" : zone,
+                    defaultZone);
+        }
+        else {
+            Matcher m = JAVA_FORMAT_PATTERN.matcher(format);
+            if (!m.matches()) {
+                return null;
+            }
+            String zone = m.group(3) == null ? "" : m.group(3);
+            boolean hasOffset = zone.endsWith("Z") && !zone.endsWith("'Z");
+            return new Iso8601Parser(
+                    m.group(1) == null ? 0 : (m.group(1).equals(" ") ? ' ' : 'T'),
+                    m.group(2) != null,
+                    m.group(2) == null ? 0 : m.group(2).length() - 1,
+                    m.group(2) != null && !m.group(2).contains("n"),
+                    hasOffset,
+                    false,
+                    hasOffset ? zone.substring(0, zone.indexOf('Z')) : "",
+                    hasOffset ? "" : zone.replace("'", ""),
+                    defaultZone);
+        }
+    }
+
+    @Override
+    public Timestamp parse(CharSequence text)
+    {
+        long seconds = dateCache.parseDate(text);
+        if (seconds == NO_MATCH) {
+            return null;
+        }
+        int pos = 10;
+        int nano = 0;
+
+        if (dateTimeSeparator != 0) {
+            if (text.length() < 19 || text.charAt(10) != dateTimeSeparator) {
+                return null;
+            }
+            int secondOfDay = parseTimeOfDay(text);
+            if (secondOfDay < 0) {
+                return null;
+            }
+            seconds += secondOfDay;
+            pos = 19;
+
+            if (hasFraction) {
+                int end = fractionEnd(text, pos);
+                if (end < 0 || end - pos - 1 > maxFractionDigits) {
+                    return null;
+                }
+                nano = fractionNano(text, pos + 1, end);
+                pos = end;
+            }
+        }
+
+        int offset = parseZone(text, pos);
+        if (offset == NO_MATCH_OFFSET) {
+            return null;
+        }
+        return toTimestamp(seconds, nano, offset, dateCache);
+    }
+
+    char getDateTimeSeparator()
+    {
+        return dateTimeSeparator;
+    }
+
+    boolean hasFraction()
+    {
+        return hasFraction;
+    }
+
+    int getMaxFractionDigits()
+    {
+        return maxFractionDigits;
+    }
+
+    // @return returns seconds of the local date at the beginning of text, or NO_MATCH
+    static long parseDate(CharSequence text)
+    {
+        if (text.length() < 10) {
+            return NO_MATCH;
+        }
+        int year = digits4(text, 0);
+        int month = digits2(text, 5);
+        int day = digits2(text, 8);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > DAYS_IN_MONTH[month] ||
+                text.charAt(4) != '-' || text.charAt(7) != '-') {
+            return NO_MATCH;
+        }
+        if (month == 2 && day == 29 && !isLeapYear(year)) {
+            return NO_MATCH;
+        }
+        return daysFromCivil(year, month, day) * 86400L;
+    }
+
+    // Parses HH:mm:ss at 11, the separator between date and time at 10 is not checked
+    // @return returns second of day, or negative value if not matched
+    static int parseTimeOfDay(CharSequence text)
+    {
+        if (text.length() < 19 || text.charAt(13) != ':' || text.charAt(16) != ':') {
+            return -1;
+        }
+        int hour = digits2(text, 11);
+        int minute = digits2(text, 14);
+        int second = digits2(text, 17);
+        if (hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+            return -1;
+        }
+        return hour * 3600 + minute * 60 + second;
+    }
+
+    // @return returns the end position of "." followed by 1 to 9 digits at pos, or negative value
+    static int fractionEnd(CharSequence text, int pos)
+    {
+        int length = text.length();
+        if (pos >= length || text.charAt(pos) != '.') {
+            return -1;
+        }
+        int end = pos + 1;
+        while (end < length && end - pos <= 10) {
+            char c = text.charAt(end);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            end++;
+        }
+        int numDigits = end - pos - 1;
+        if (numDigits == 0 || numDigits > 9) {
+            return -1;
+        }
+        return end;
+    }
+
+    // @return returns nano second of fraction digits between start and end
+    static int fractionNano(CharSequence text, int start, int end)
+    {
+        int nano = 0;
+        for (int i = start; i < end; i++) {
+            nano = nano * 10 + (text.charAt(i) - '0');
+        }
+        for (int i = end - start; i < 9; i++) {
+            nano *= 10;
+        }
+        return nano;
+    }
+
+    // Parses the zone part from pos till the end
+    // @return returns offset seconds, DEFAULT_ZONE_OFFSET if default timezone is used, or NO_MATCH_OFFSET
+    int parseZone(CharSequence text, int pos)
+    {
+        int length = text.length();
+        if (hasOffset) {
+            if (!regionMatches(text, pos, zonePrefix)) {
+                return NO_MATCH_OFFSET;
+            }
+            return parseOffsetSeconds(text, pos + zonePrefix.length(), length);
+        }
+        else {
+            if (pos + literalSuffix.length() != length || !regionMatches(text, pos, literalSuffix)) {
+                return NO_MATCH_OFFSET;
+            }
+            return DEFAULT_ZONE_OFFSET;
+        }
+    }
+
+    // @param dateCache the cache which parsed the date of localSeconds
+    // @return returns null if local time is in a DST gap of default timezone
+    Timestamp toTimestamp(long localSeconds, int nano, int offset, DatePrefixCache dateCache)
+    {
+        if (milliResolution) {
+            nano = nano / 1000000 * 1000000;
+        }
+        if (offset != DEFAULT_ZONE_OFFSET) {
+            return Timestamp.ofEpochSecond(localSeconds - offset, nano);
+        }
+        int dayOffset = dateCache.getDayOffset(localSeconds);
+        if (dayOffset != DEFAULT_ZONE_OFFSET) {
+            return Timestamp.ofEpochSecond(localSeconds - dayOffset, nano);
+        }
+        int zoneOffset = zoneCache.getOffsetSecondsFromLocal(localSeconds);
+        if (zoneOffset == ZoneOffsetCache.GAP) {
+            return null; // leave it to the original parser
+        }
+        return Timestamp.ofEpochSecond(localSeconds - zoneOffset, nano);
+    }
+
+    // @return returns NO_MATCH_OFFSET if text is not an offset till the end
+    private int parseOffsetSeconds(CharSequence text, int pos, int length)
+    {
+        int remaining = length - pos;
+        if (remaining == 1 && text.charAt(pos) == 'Z') {
+            return 0;
+        }
+        if (remaining == 3 && acceptUtcOffsetName && regionMatches(text, pos, "UTC")) {
+            return 0;
+        }
+        if (remaining != 5 && remaining != 6) {
+            return NO_MATCH_OFFSET;
+        }
+        char sign = text.charAt(pos);
+        if (sign != '+' && sign != '-') {
+            return NO_MATCH_OFFSET;
+        }
+        int hour = digits2(text, pos + 1);
+        int minutePos = pos + 3;
+        if (remaining == 6) {
+            if (text.charAt(minutePos) != ':') {
+                return NO_MATCH_OFFSET;
+            }
+            minutePos++;
+        }
+        int minute = digits2(text, minutePos);
+        if (hour < 0 || hour > 23 || minute < 0 || minute > 59) {
+            return NO_MATCH_OFFSET;
+        }
+        int offsetSeconds = hour * 3600 + minute * 60;
+        return sign == '+' ? offsetSeconds : -offsetSeconds;
+    }
+
+    private static boolean regionMatches(CharSequence text, int pos, String expected)
+    {
+        int length = expected.length();
+        if (pos + length > text.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (text.charAt(pos + i) != expected.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // @return returns negative value if not digits
+    private static int digits2(CharSequence text, int pos)
+    {
+        int d1 = text.charAt(pos) - '0';
+        int d2 = text.charAt(pos + 1) - '0';
+        if (d1 < 0 || d1 > 9 || d2 < 0 || d2 > 9) {
+            return -1;
+        }
+        return d1 * 10 + d2;
+    }
+
+    // @return returns negative value if not digits
+    private static int digits4(CharSequence text, int pos)
+    {
+        int d1 = digits2(text, pos);
+        int d2 = digits2(text, pos + 2);
+        if (d1 < 0 || d2 < 0) {
+            return -1;
+        }
+        return d1 * 100 + d2;
+    }
+
+    static boolean isLeapYear(long year)
+    {
+        return (year & 3) == 0 && (year % 100 != 0 || year % 400 == 0);
+    }
+
+    // Days since 1970-01-01 of the proleptic Gregorian calendar date
+    // See http://howardhinnant.github.io/date_algorithms.html#days_from_civil
+    static long daysFromCivil(long year, int month, int day)
+    {
+        long y = month <= 2 ? year - 1 : year;
+        long era = Math.floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+}
@@ -0,0 +1,30 @@
+package org.embulk.filter.timestamp_format;
+
+import org.embulk.spi.time.Timestamp;
+import org.embulk.spi.time.TimestampParseException;
+
+// JRuby parser of embulk
+// NOTE: embulk's TimestampParser has no API to tell a mismatch without an exception,
+// so the exception is caught here. Put the faster parsers in front of this to avoid the cost.
+class JRubyFormatParser implements FormatParser
+{
+    private final org.embulk.spi.time.TimestampParser parser;
+
+    JRubyFormatParser(org.embulk.spi.time.TimestampParser parser)
+    {
+        this.parser = parser;
+    }
+
+    @Override
+    public Timestamp parse(CharSequence text)
+    {
+        try {
+            // NOTE: embulk >= 0.8.27 uses new faster jruby timestamp parser, and it supports nano second
+            // NOTE: embulk < 0.8.27 uses old slower jruby timestamp parser, and it supports micro second
+            return parser.parse(text.toString());
+        }
+        catch (TimestampParseException ex) {
+            return null;
+        }
+    }
+}
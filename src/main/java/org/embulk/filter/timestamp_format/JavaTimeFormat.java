@@ -0,0 +1,326 @@
+package org.embulk.filter.timestamp_format;
+
+import org.joda.time.DateTimeZone;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.ResolverStyle;
+import java.time.format.SignStyle;
+import java.time.format.TextStyle;
+import java.time.temporal.ChronoField;
+import java.time.temporal.IsoFields;
+import java.time.temporal.TemporalField;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Builds java.time DateTimeFormatter from a java (Joda-Time) format of this plugin
+//
+// Joda-Time and java.time patterns look alike, but differ in some letters (e.g., ZZ is +09:00 in Joda-Time,
+// but +0900 in java.time), so patterns are translated letter by letter into DateTimeFormatterBuilder calls
+// with Joda-Time semantics. nnnnnnnnn (and nnnnnn for formatters) is a fraction as this plugin has been so.
+// Formatters are immutable and thread-safe, so they are cached per pattern.
+final class JavaTimeFormat
+{
+    private static final ConcurrentHashMap<String, DateTimeFormatter> PARSER_CACHE = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, DateTimeFormatter> FORMATTER_CACHE = new ConcurrentHashMap<>();
+
+    private JavaTimeFormat() {}
+
+    static DateTimeFormatter parserOf(String pattern)
+    {
+        DateTimeFormatter formatter = PARSER_CACHE.get(pattern);
+        if (formatter == null) {
+            formatter = build(pattern, true);
+            PARSER_CACHE.putIfAbsent(pattern, formatter);
+        }
+        return formatter;
+    }
+
+    static DateTimeFormatter formatterOf(String pattern)
+    {
+        DateTimeFormatter formatter = FORMATTER_CACHE.get(pattern);
+        if (formatter == null) {
+            formatter = build(pattern, false);
+            FORMATTER_CACHE.putIfAbsent(pattern, formatter);
+        }
+        return formatter;
+    }
+
+    static ZoneId toZoneId(DateTimeZone zone)
+    {
+        return ZoneId.of(zone.getID());
+    }
+
+    // @return returns true if the pattern has a timezone field, Z or z
+    static boolean hasZoneField(String pattern)
+    {
+        boolean quoted = false;
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '\'') {
+                quoted = !quoted;
+            }
+            else if (!quoted && (c == 'Z' || c == 'z')) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static DateTimeFormatter build(String pattern, boolean forParsing)
+    {
+        DateTimeFormatterBuilder builder = new DateTimeFormatterBuilder();
+        if (forParsing) {
+            builder.parseCaseInsensitive(); // as Joda-Time
+        }
+        StringBuilder fields = new StringBuilder();
+        int length = pattern.length();
+        for (int i = 0; i < length; i++) {
+            char c = pattern.charAt(i);
+            if (c == '\'') {
+                // quoted literal, and '' is a quote
+                StringBuilder literal = new StringBuilder();
+                i++;
+                if (i < length && pattern.charAt(i) == '\'') {
+                    builder.appendLiteral('\'');
+                    continue;
+                }
+                while (i < length) {
+                    char q = pattern.charAt(i);
+                    if (q == '\'') {
+                        if (i + 1 < length && pattern.charAt(i + 1) == '\'') {
+                            i++;
+                        }
+                        else {
+                            break;
+                        }
+                    }
+                    literal.append(q);
+                    i++;
+                }
+                builder.appendLiteral(literal.toString());
+                continue;
+            }
+            if (!((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z'))) {
+                builder.appendLiteral(c);
+                continue;
+            }
+            int count = 1;
+            while (i + 1 < length && pattern.charAt(i + 1) == c) {
+                i++;
+                count++;
+            }
+            // as Joda-Time, numbers followed by another number are read in fixed width
+            boolean fixedWidth = forParsing && isNumericField(pattern, i + 1);
+            appendField(builder, c, count, forParsing, fixedWidth);
+            fields.append(c);
+        }
+        if (forParsing) {
+            appendDefaults(builder, fields.toString());
+        }
+        // as Joda-Time, reject invalid dates such as 02/31 instead of clamping them into the month
+        return builder.toFormatter(Locale.ENGLISH).withResolverStyle(ResolverStyle.STRICT);
+    }
+
+    private static boolean isNumericField(String pattern, int pos)
+    {
+        if (pos >= pattern.length()) {
+            return false;
+        }
+        char c = pattern.charAt(pos);
+        if (c == 'M') {
+            return !pattern.startsWith("MMM", pos);
+        }
+        return "yYxwedDHkhKmsSn".indexOf(c) >= 0;
+    }
+
+    private static void appendField(DateTimeFormatterBuilder builder, char c, int count,
+                                    boolean forParsing, boolean fixedWidth)
+    {
+        switch (c) {
+            case 'y':
+                appendYear(builder, ChronoField.YEAR, count, forParsing, fixedWidth);
+                break;
+            case 'Y':
+                appendYear(builder, ChronoField.YEAR_OF_ERA, count, forParsing, fixedWidth);
+                break;
+            case 'x':
+                appendYear(builder, IsoFields.WEEK_BASED_YEAR, count, forParsing, fixedWidth);
+                break;
+            case 'w':
+                appendNumber(builder, IsoFields.WEEK_OF_WEEK_BASED_YEAR, count, 2, forParsing, fixedWidth);
+                break;
+            case 'e':
+                appendNumber(builder, ChronoField.DAY_OF_WEEK, count, 1, forParsing, fixedWidth);
+                break;
+            case 'E':
+                builder.appendText(ChronoField.DAY_OF_WEEK, count >= 4 ? TextStyle.FULL : TextStyle.SHORT);
+                break;
+            case 'M':
+                if (count >= 3) {
+                    builder.appendText(ChronoField.MONTH_OF_YEAR, count >= 4 ? TextStyle.FULL : TextStyle.SHORT);
+                }
+                else {
+                    appendNumber(builder, ChronoField.MONTH_OF_YEAR, count, 2, forParsing, fixedWidth);
+                }
+                break;
+            case 'd':
+                appendNumber(builder, ChronoField.DAY_OF_MONTH, count, 2, forParsing, fixedWidth);
+                break;
+            case 'D':
+                appendNumber(builder, ChronoField.DAY_OF_YEAR, count, 3, forParsing, fixedWidth);
+                break;
+            case 'a':
+                builder.appendText(ChronoField.AMPM_OF_DAY, TextStyle.SHORT);
+                break;
+            case 'H':
+                appendNumber(builder, ChronoField.HOUR_OF_DAY, count, 2, forParsing, fixedWidth);
+                break;
+            case 'k':
+                appendNumber(builder, ChronoField.CLOCK_HOUR_OF_DAY, count, 2, forParsing, fixedWidth);
+                break;
+            case 'h':
+                appendNumber(builder, ChronoField.CLOCK_HOUR_OF_AMPM, count, 2, forParsing, fixedWidth);
+                break;
+            case 'K':
+                appendNumber(builder, ChronoField.HOUR_OF_AMPM, count, 2, forParsing, fixedWidth);
+                break;
+            case 'm':
+                appendNumber(builder, ChronoField.MINUTE_OF_HOUR, count, 2, forParsing, fixedWidth);
+                break;
+            case 's':
+                appendNumber(builder, ChronoField.SECOND_OF_MINUTE, count, 2, forParsing, fixedWidth);
+                break;
+            case 'S':
+                if (count > 9) {
+                    throw new IllegalArgumentException("Illegal pattern component: " + repeat(c, count));
+                }
+                // unlike Joda-Time, digits after milli second are not dropped
+                builder.appendFraction(ChronoField.NANO_OF_SECOND, forParsing ? 1 : count, count, false);
+                break;
+            case 'n':
+                if (count == 9 || (count <= 9 && !forParsing)) {
+                    builder.appendFraction(ChronoField.NANO_OF_SECOND, forParsing ? 1 : count, count, false);
+                    break;
+                }
+                throw new IllegalArgumentException("Illegal pattern component: " + repeat(c, count));
+            case 'Z':
+                if (count >= 3) {
+                    builder.appendZoneId();
+                }
+                else if (forParsing) {
+                    // as Joda-Time, accept Z, +09:00 and +0900 for both of Z and ZZ
+                    builder.optionalStart().appendOffset("+HH:MM", "Z").optionalEnd();
+                    builder.optionalStart().appendOffset("+HHMM", "Z").optionalEnd();
+                }
+                else if (count == 1) {
+                    builder.appendOffset("+HHMM", "+0000");
+                }
+                else {
+                    builder.appendOffset("+HH:MM", "+00:00");
+                }
+                break;
+            case 'z':
+                builder.appendZoneText(count >= 4 ? TextStyle.FULL : TextStyle.SHORT);
+                break;
+            case 'G':
+                builder.appendText(ChronoField.ERA, TextStyle.SHORT);
+                break;
+            default:
+                throw new IllegalArgumentException("Illegal pattern component: " + repeat(c, count));
+        }
+    }
+
+    // As Joda-Time, two digits of yy are a year from 80 years ago, and other digits of yy (unless followed by
+    // another number) are the year as is. Other years are read in any digits with an optional sign
+    private static void appendYear(DateTimeFormatterBuilder builder, TemporalField field, int count,
+                                   boolean forParsing, boolean fixedWidth)
+    {
+        if (count == 2) {
+            LocalDate baseDate = LocalDate.now().minusYears(80);
+            builder.appendValueReduced(field, 2, forParsing && !fixedWidth ? 9 : 2, baseDate);
+        }
+        else if (fixedWidth) {
+            builder.appendValue(field, count);
+        }
+        else if (forParsing) {
+            builder.optionalStart().appendLiteral('+').optionalEnd();
+            builder.appendValue(field, 1, 9, SignStyle.NORMAL);
+        }
+        else {
+            builder.appendValue(field, count, 9, SignStyle.NORMAL);
+        }
+    }
+
+    private static void appendNumber(DateTimeFormatterBuilder builder, TemporalField field, int count, int maxDigits,
+                                     boolean forParsing, boolean fixedWidth)
+    {
+        if (fixedWidth) {
+            builder.appendValue(field, count);
+        }
+        else if (forParsing) {
+            builder.appendValue(field, 1, Math.max(count, maxDigits), SignStyle.NOT_NEGATIVE);
+        }
+        else {
+            builder.appendValue(field, count, Math.max(count, 19), SignStyle.NOT_NEGATIVE);
+        }
+    }
+
+    // Defaults of fields which the pattern does not have. As Joda-Time, the date is 2000-01-01 if only month
+    // or day is given, and 1970-01-01 if no date field is given.
+    private static void appendDefaults(DateTimeFormatterBuilder builder, String fields)
+    {
+        boolean hasYear = containsAny(fields, "yYx");
+        boolean hasWeek = containsAny(fields, "w");
+        boolean hasDayOfYear = containsAny(fields, "D");
+        boolean hasMonth = containsAny(fields, "M");
+        boolean hasDay = containsAny(fields, "d");
+        if (!hasYear) {
+            builder.parseDefaulting(ChronoField.YEAR, hasMonth || hasDay || hasDayOfYear ? 2000 : 1970);
+        }
+        else if (containsAny(fields, "Y") && !containsAny(fields, "G")) {
+            // YEAR_OF_ERA is not resolved into a year without an era in STRICT
+            builder.parseDefaulting(ChronoField.ERA, 1);
+        }
+        if (hasWeek) {
+            if (!containsAny(fields, "eE")) {
+                builder.parseDefaulting(ChronoField.DAY_OF_WEEK, 1);
+            }
+        }
+        else if (!hasDayOfYear) {
+            if (!hasMonth) {
+                builder.parseDefaulting(ChronoField.MONTH_OF_YEAR, 1);
+            }
+            if (!hasDay) {
+                builder.parseDefaulting(ChronoField.DAY_OF_MONTH, 1);
+            }
+        }
+        if (!containsAny(fields, "HkhK")) {
+            builder.parseDefaulting(ChronoField.HOUR_OF_DAY, 0);
+        }
+        else if (containsAny(fields, "hK") && !containsAny(fields, "a")) {
+            builder.parseDefaulting(ChronoField.AMPM_OF_DAY, 0);
+        }
+    }
+
+    private static boolean containsAny(String fields, String letters)
+    {
+        for (int i = 0; i < letters.length(); i++) {
+            if (fields.indexOf(letters.charAt(i)) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String repeat(char c, int count)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+}
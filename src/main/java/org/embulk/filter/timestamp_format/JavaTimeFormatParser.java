@@ -0,0 +1,69 @@
+package org.embulk.filter.timestamp_format;
+
+import org.embulk.spi.time.Timestamp;
+import org.joda.time.DateTimeZone;
+
+import java.text.ParsePosition;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.TemporalAccessor;
+import java.time.temporal.TemporalQueries;
+
+// Java parser with java.time, selected by timestamp_parser: java_time
+// Fractions of any digits up to 9 are parsed in nano second resolution natively
+class JavaTimeFormatParser implements FormatParser
+{
+    private final DateTimeFormatter formatter;
+    private final boolean hasZoneField;
+    private final ZoneId defaultZone;
+
+    JavaTimeFormatParser(String format, DateTimeZone defaultFromTimeZone)
+    {
+        this.formatter = JavaTimeFormat.parserOf(format);
+        this.hasZoneField = JavaTimeFormat.hasZoneField(format);
+        this.defaultZone = JavaTimeFormat.toZoneId(defaultFromTimeZone);
+    }
+
+    @Override
+    public Timestamp parse(CharSequence text)
+    {
+        // NOTE: a mismatch throws, but TimestampParser tries a format only on texts of its signature, so
+        // exceptions are rare and a text is parsed once
+        ParsePosition position = new ParsePosition(0);
+        TemporalAccessor parsed;
+        try {
+            parsed = formatter.parse(text, position);
+        }
+        catch (DateTimeException ex) {
+            // a mismatch, or an invalid field value such as month 13, or day 31 of a month of 30 days
+            return null;
+        }
+        if (position.getIndex() != text.length()) {
+            return null;
+        }
+        ZoneId zone = parsed.query(TemporalQueries.zone());
+        if (zone == null) {
+            if (hasZoneField) {
+                return null; // offset is in optional sections to accept both +09:00 and +0900
+            }
+            zone = defaultZone;
+        }
+        LocalDate date = parsed.query(TemporalQueries.localDate());
+        LocalTime time = parsed.query(TemporalQueries.localTime());
+        if (date == null || time == null) {
+            return null;
+        }
+        LocalDateTime localDateTime = date.atTime(time);
+        if (zone.getRules().getValidOffsets(localDateTime).isEmpty()) {
+            return null; // in a gap of DST transition, which Joda-Time rejects
+        }
+        Instant instant = ZonedDateTime.ofLocal(localDateTime, zone, null).toInstant();
+        return Timestamp.ofEpochSecond(instant.getEpochSecond(), instant.getNano());
+    }
+}
@@ -0,0 +1,144 @@
+package org.embulk.filter.timestamp_format;
+
+import org.embulk.spi.time.Timestamp;
+import org.joda.time.DateTimeZone;
+import org.joda.time.chrono.ISOChronology;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.DateTimeParser;
+import org.joda.time.format.DateTimeParserBucket;
+
+import java.util.Locale;
+
+// Java (Joda-Time) parser which does not use exceptions to tell a mismatch
+// DateTimeFormatter#parseDateTime throws IllegalArgumentException (with a stack trace) on a mismatch,
+// so this drives DateTimeParser#parseInto directly as DateTimeFormatter#parseMillis does internally
+//
+// For nano resolution, the format is split at nnnnnnnnn into the prefix and the suffix, and the fraction
+// digits between them are read by this class, so the text is parsed in one pass without a regex.
+class JodaFormatParser implements FormatParser
+{
+    private static final String NANO_PATTERN = "nnnnnnnnn";
+    private static final int[] POW10 = {1, 10, 100, 1000, 10000, 100000, 1000000, 10000000, 100000000, 1000000000};
+
+    private final DateTimeParser parser; // the prefix before nnnnnnnnn if handleNanoResolution, null if empty
+    private final DateTimeParser suffixParser; // the suffix after nnnnnnnnn, null if empty
+    private final DateTimeParserBucket bucket;
+    private final boolean handleNanoResolution;
+
+    JodaFormatParser(String format, DateTimeZone defaultFromTimeZone)
+    {
+        DateTimeFormatter formatter;
+        // special treatment for nano resolution. n is not originally supported by Joda-Time
+        int nanoIndex = indexOfUnquoted(format, NANO_PATTERN);
+        if (nanoIndex >= 0) {
+            this.handleNanoResolution = true;
+            String prefix = format.substring(0, nanoIndex);
+            String suffix = format.substring(nanoIndex + NANO_PATTERN.length());
+            formatter = createFormatter(prefix, defaultFromTimeZone);
+            DateTimeFormatter suffixFormatter = createFormatter(suffix, defaultFromTimeZone);
+            this.suffixParser = suffixFormatter == null ? null : suffixFormatter.getParser();
+        }
+        else {
+            this.handleNanoResolution = false;
+            formatter = createFormatter(format, defaultFromTimeZone);
+            this.suffixParser = null;
+        }
+        this.parser = formatter == null ? null : formatter.getParser();
+        // locale, pivot year and default year are the defaults of DateTimeFormat
+        this.bucket = new DateTimeParserBucket(0, ISOChronology.getInstance(defaultFromTimeZone),
+                Locale.ENGLISH, null, 2000);
+    }
+
+    // @return returns null if format is empty
+    private static DateTimeFormatter createFormatter(String format, DateTimeZone zone)
+    {
+        if (format.isEmpty()) {
+            return null;
+        }
+        // other n letters are fractions as this plugin has been so
+        String newFormat = replaceUnquoted(format, 'n', 'S');
+        return DateTimeFormat.forPattern(newFormat).withLocale(Locale.ENGLISH).withZone(zone);
+    }
+
+    @Override
+    public Timestamp parse(CharSequence text)
+    {
+        String str = text.toString();
+        bucket.reset();
+        int pos = parser == null ? 0 : parser.parseInto(bucket, str, 0);
+        if (pos < 0) {
+            return null;
+        }
+        int nano = 0;
+        if (handleNanoResolution) {
+            // as SSSSSSSSS, 1 to 9 digits
+            int start = pos;
+            int length = str.length();
+            while (pos < length && pos - start < 9) {
+                char c = str.charAt(pos);
+                if (c < '0' || c > '9') {
+                    break;
+                }
+                nano = nano * 10 + (c - '0');
+                pos++;
+            }
+            if (pos == start) {
+                return null;
+            }
+            nano *= POW10[9 - (pos - start)];
+            if (suffixParser != null) {
+                pos = suffixParser.parseInto(bucket, str, pos);
+            }
+        }
+        if (pos != str.length()) {
+            return null; // negative on a mismatch, or text has a leftover
+        }
+        long msec;
+        try {
+            msec = bucket.computeMillis(true, str); // NOTE: milli second resolution
+        }
+        catch (IllegalArgumentException ex) {
+            // invalid field value such as month 13, or local time in a DST gap. rare.
+            return null;
+        }
+
+        if (handleNanoResolution) {
+            // milli seconds of msec are always 0 since the fraction is not given to the bucket
+            return Timestamp.ofEpochSecond(Math.floorDiv(msec, 1000L), nano);
+        }
+        else {
+            long nanoAdjustment = msec * 1000000;
+            return Timestamp.ofEpochSecond(0, nanoAdjustment);
+        }
+    }
+
+    // @return returns the index of target outside of quoted literals, or -1
+    private static int indexOfUnquoted(String format, String target)
+    {
+        boolean quoted = false;
+        for (int i = 0; i < format.length(); i++) {
+            if (format.charAt(i) == '\'') {
+                quoted = !quoted;
+            }
+            else if (!quoted && format.startsWith(target, i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String replaceUnquoted(String format, char oldChar, char newChar)
+    {
+        StringBuilder sb = new StringBuilder(format.length());
+        boolean quoted = false;
+        for (int i = 0; i < format.length(); i++) {
+            char c = format.charAt(i);
+            if (c == '\'') {
+                quoted = !quoted;
+            }
+            sb.append(!quoted && c == oldChar ? newChar : c);
+        }
+        return sb.toString();
+    }
+}
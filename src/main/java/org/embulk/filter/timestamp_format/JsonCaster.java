@@ -1,21 +1,14 @@
 package org.embulk.filter.timestamp_format;
 
-import org.embulk.config.ConfigException;
-import org.embulk.filter.timestamp_format.cast.DoubleCast;
-import org.embulk.filter.timestamp_format.cast.LongCast;
-import org.embulk.filter.timestamp_format.cast.StringCast;
+import io.github.medjed.jsonpathcompiler.expressions.path.PathCompiler;
+import org.embulk.filter.timestamp_format.cast.JsonCast;
 import org.embulk.filter.timestamp_format.TimestampFormatFilterPlugin.ColumnConfig;
 import org.embulk.filter.timestamp_format.TimestampFormatFilterPlugin.PluginTask;
 import org.embulk.spi.Exec;
-import org.embulk.spi.type.DoubleType;
-import org.embulk.spi.type.LongType;
-import org.embulk.spi.type.StringType;
-import org.embulk.spi.type.Type;
 import org.msgpack.value.FloatValue;
 import org.msgpack.value.IntegerValue;
 import org.msgpack.value.StringValue;
 import org.msgpack.value.Value;
-import org.msgpack.value.ValueFactory;
 
 import org.slf4j.Logger;
 
@@ -25,10 +18,9 @@ class JsonCaster
 {
     private static final Logger logger = Exec.getLogger(TimestampFormatFilterPlugin.class);
     private final PluginTask task;
-    private final HashMap<String, TimestampParser> timestampParserMap;
-    private final HashMap<String, TimestampFormatter> timestampFormatterMap;
-    private final HashMap<String, TimestampUnit> fromTimestampUnitMap;
-    private final HashMap<String, TimestampUnit> toTimestampUnitMap;
+    // json path => JsonCast resolved on start-up
+    private final HashMap<String, JsonCast> jsonCastMap = new HashMap<>();
+    private final AsciiCharSequence asciiView = new AsciiCharSequence();
 
     JsonCaster(PluginTask task,
                HashMap<String, TimestampParser> timestampParserMap,
@@ -37,75 +29,30 @@ class JsonCaster
                HashMap<String, TimestampUnit> toTimestampUnitMap)
     {
         this.task = task;
-        this.timestampParserMap = timestampParserMap;
-        this.timestampFormatterMap = timestampFormatterMap;
-        this.fromTimestampUnitMap = fromTimestampUnitMap;
-        this.toTimestampUnitMap = toTimestampUnitMap;
+        for (ColumnConfig columnConfig : task.getColumns()) {
+            String name = columnConfig.getName();
+            if (!PathCompiler.isProbablyJsonPath(name)) {
+                continue;
+            }
+            jsonCastMap.put(name, JsonCast.of(columnConfig.getType(), timestampParserMap.get(name),
+                    timestampFormatterMap.get(name), fromTimestampUnitMap.get(name), toTimestampUnitMap.get(name)));
+        }
     }
 
     public Value fromLong(ColumnConfig columnConfig, IntegerValue value)
     {
-        Type outputType = columnConfig.getType();
-        TimestampUnit fromUnit = fromTimestampUnitMap.get(columnConfig.getName());
-        if (outputType instanceof StringType) {
-            TimestampFormatter formatter = timestampFormatterMap.get(columnConfig.getName());
-            return ValueFactory.newString(LongCast.asString(value.asLong(), fromUnit, formatter));
-        }
-        else if (outputType instanceof LongType) {
-            TimestampUnit toUnit = toTimestampUnitMap.get(columnConfig.getName());
-            return ValueFactory.newInteger(LongCast.asLong(value.asLong(), fromUnit, toUnit));
-        }
-        else if (outputType instanceof DoubleType) {
-            TimestampUnit toUnit = toTimestampUnitMap.get(columnConfig.getName());
-            return ValueFactory.newFloat(LongCast.asDouble(value.asLong(), fromUnit, toUnit));
-        }
-        else {
-            assert false;
-            throw new RuntimeException();
-        }
+        return jsonCastMap.get(columnConfig.getName()).fromLong(value.asLong());
     }
 
     public Value fromDouble(ColumnConfig columnConfig, FloatValue value)
     {
-        Type outputType = columnConfig.getType();
-        TimestampUnit fromUnit = fromTimestampUnitMap.get(columnConfig.getName());
-        if (outputType instanceof StringType) {
-            TimestampFormatter formatter = timestampFormatterMap.get(columnConfig.getName());
-            return ValueFactory.newString(DoubleCast.asString(value.toDouble(), fromUnit, formatter));
-        }
-        else if (outputType instanceof LongType) {
-            TimestampUnit toUnit = toTimestampUnitMap.get(columnConfig.getName());
-            return ValueFactory.newInteger(DoubleCast.asLong(value.toDouble(), fromUnit, toUnit));
-        }
-        else if (outputType instanceof DoubleType) {
-            TimestampUnit toUnit = toTimestampUnitMap.get(columnConfig.getName());
-            return ValueFactory.newFloat(DoubleCast.asDouble(value.toDouble(), fromUnit, toUnit));
-        }
-        else {
-            assert false;
-            throw new RuntimeException();
-        }
+        return jsonCastMap.get(columnConfig.getName()).fromDouble(value.toDouble());
     }
 
     public Value fromString(ColumnConfig columnConfig, StringValue value)
     {
-        Type outputType = columnConfig.getType();
-        TimestampParser parser = timestampParserMap.get(columnConfig.getName());
-        if (outputType instanceof StringType) {
-            TimestampFormatter formatter = timestampFormatterMap.get(columnConfig.getName());
-            return ValueFactory.newString(StringCast.asString(value.asString(), parser, formatter));
-        }
-        else if (outputType instanceof LongType) {
-            TimestampUnit toUnit = toTimestampUnitMap.get(columnConfig.getName());
-            return ValueFactory.newInteger(StringCast.asLong(value.asString(), parser, toUnit));
-        }
-        else if (outputType instanceof DoubleType) {
-            TimestampUnit toUnit = toTimestampUnitMap.get(columnConfig.getName());
-            return ValueFactory.newFloat(StringCast.asDouble(value.asString(), parser, toUnit));
-        }
-        else {
-            assert false;
-            throw new RuntimeException();
-        }
+        // parse the UTF-8 bytes of msgpack directly, without decoding them into a String, if they are ASCII
+        CharSequence text = asciiView.reset(value.asByteBuffer()) ? asciiView : value.asString();
+        return jsonCastMap.get(columnConfig.getName()).fromString(text);
     }
 }
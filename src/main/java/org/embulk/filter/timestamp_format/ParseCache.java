@@ -0,0 +1,53 @@
+package org.embulk.filter.timestamp_format;
+
+import org.embulk.spi.time.Timestamp;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Bounded LRU cache of parse results keyed on input texts, for columns with few distinct values
+// such as business dates or hourly partition keys. Timestamp is immutable, so results are shared.
+// Not thread-safe, a cache belongs to a TimestampParser of a task.
+class ParseCache extends LinkedHashMap<String, Timestamp>
+{
+    private static final long serialVersionUID = 1L;
+
+    private final int maxSize;
+    private long hits = 0;
+    private long misses = 0;
+
+    ParseCache(int maxSize)
+    {
+        super(16, 0.75f, true); // access order
+        this.maxSize = maxSize;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Timestamp> eldest)
+    {
+        return size() > maxSize;
+    }
+
+    // @return returns null on a miss
+    Timestamp lookup(String text)
+    {
+        Timestamp timestamp = get(text);
+        if (timestamp == null) {
+            misses++;
+        }
+        else {
+            hits++;
+        }
+        return timestamp;
+    }
+
+    long getHits()
+    {
+        return hits;
+    }
+
+    long getMisses()
+    {
+        return misses;
+    }
+}
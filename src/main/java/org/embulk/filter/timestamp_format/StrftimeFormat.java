@@ -0,0 +1,191 @@
+package org.embulk.filter.timestamp_format;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Tokenizer of jruby (strftime) formats
+//
+// A format is split into literals and directives such as %Y, %-d, %6N, %:z once, and the tokens are shared by
+// the format converter, the compiled parser, and the format signature, so that all read formats in the same way.
+final class StrftimeFormat
+{
+    private static final String FLAGS = "-_0^#";
+
+    // combined directives and their expansions
+    private static final Map<Character, String> COMBINED_DIRECTIVES = new HashMap<>();
+
+    static
+    {
+        COMBINED_DIRECTIVES.put('F', "%Y-%m-%d");
+        COMBINED_DIRECTIVES.put('T', "%H:%M:%S");
+        COMBINED_DIRECTIVES.put('X', "%H:%M:%S");
+        COMBINED_DIRECTIVES.put('R', "%H:%M");
+        COMBINED_DIRECTIVES.put('D', "%m/%d/%y");
+        COMBINED_DIRECTIVES.put('x', "%m/%d/%y");
+        COMBINED_DIRECTIVES.put('r', "%I:%M:%S %p");
+        COMBINED_DIRECTIVES.put('c', "%a %b %e %H:%M:%S %Y");
+        COMBINED_DIRECTIVES.put('v', "%e-%^b-%Y");
+        COMBINED_DIRECTIVES.put('+', "%a %b %e %H:%M:%S %Z %Y");
+    }
+
+    static final class Token
+    {
+        private final char conversion; // 0 for a literal
+        private final String literal;
+        private final String flags;
+        private final int width; // -1 if not given
+        private final int colons;
+
+        private Token(char conversion, String literal, String flags, int width, int colons)
+        {
+            this.conversion = conversion;
+            this.literal = literal;
+            this.flags = flags;
+            this.width = width;
+            this.colons = colons;
+        }
+
+        static Token literal(String literal)
+        {
+            return new Token((char) 0, literal, "", -1, 0);
+        }
+
+        boolean isLiteral()
+        {
+            return conversion == 0;
+        }
+
+        char getConversion()
+        {
+            return conversion;
+        }
+
+        String getLiteral()
+        {
+            return literal;
+        }
+
+        String getFlags()
+        {
+            return flags;
+        }
+
+        int getWidth()
+        {
+            return width;
+        }
+
+        int getColons()
+        {
+            return colons;
+        }
+
+        boolean isCombined()
+        {
+            return COMBINED_DIRECTIVES.containsKey(conversion);
+        }
+
+        @Override
+        public String toString()
+        {
+            if (isLiteral()) {
+                return literal;
+            }
+            StringBuilder sb = new StringBuilder("%").append(flags);
+            if (width >= 0) {
+                sb.append(width);
+            }
+            for (int i = 0; i < colons; i++) {
+                sb.append(':');
+            }
+            return sb.append(conversion).toString();
+        }
+    }
+
+    private StrftimeFormat() {}
+
+    // A format including % is a ruby format, except a quoted '%' of java formats into which a literal % of
+    // ruby formats is converted. %' is not a directive of ruby formats.
+    static boolean isRubyFormat(String format)
+    {
+        for (int i = format.indexOf('%'); i >= 0; i = format.indexOf('%', i + 1)) {
+            boolean quoted = i > 0 && format.charAt(i - 1) == '\'' && i + 1 < format.length() && format.charAt(i + 1) == '\'';
+            if (!quoted) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Adjacent literal characters are merged into one literal token, and %% is a literal %.
+    // An incomplete directive at the end is a literal as strftime does.
+    static List<Token> tokenize(String format)
+    {
+        List<Token> tokens = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        int length = format.length();
+        int i = 0;
+        while (i < length) {
+            char c = format.charAt(i);
+            if (c != '%') {
+                literal.append(c);
+                i++;
+                continue;
+            }
+            int pos = i + 1;
+            int flagsStart = pos;
+            while (pos < length && FLAGS.indexOf(format.charAt(pos)) >= 0) {
+                pos++;
+            }
+            String flags = format.substring(flagsStart, pos);
+            int width = -1;
+            while (pos < length && format.charAt(pos) >= '0' && format.charAt(pos) <= '9') {
+                width = (width < 0 ? 0 : width * 10) + (format.charAt(pos) - '0');
+                pos++;
+            }
+            int colons = 0;
+            while (pos < length && format.charAt(pos) == ':') {
+                colons++;
+                pos++;
+            }
+            if (pos >= length) {
+                literal.append(format, i, length);
+                break;
+            }
+            char conversion = format.charAt(pos);
+            if (conversion == '%' && flags.isEmpty() && width < 0 && colons == 0) {
+                literal.append('%');
+            }
+            else {
+                if (literal.length() > 0) {
+                    tokens.add(Token.literal(literal.toString()));
+                    literal.setLength(0);
+                }
+                tokens.add(new Token(conversion, null, flags, width, colons));
+            }
+            i = pos + 1;
+        }
+        if (literal.length() > 0) {
+            tokens.add(Token.literal(literal.toString()));
+        }
+        return Collections.unmodifiableList(tokens);
+    }
+
+    // Tokens where combined directives such as %F or %T are expanded into simple directives
+    static List<Token> tokenizeExpanded(String format)
+    {
+        List<Token> tokens = new ArrayList<>();
+        for (Token token : tokenize(format)) {
+            if (token.isCombined()) {
+                tokens.addAll(tokenizeExpanded(COMBINED_DIRECTIVES.get(token.getConversion())));
+            }
+            else {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+}
@@ -0,0 +1,412 @@
+package org.embulk.filter.timestamp_format;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Formatter of jruby (strftime) formats in pure Java, compatible with RubyDateFormat of jruby
+//
+// A format is compiled into segments once, and a value is formatted by computing the local date and time of
+// the value with integer arithmetic and appending each segment, without DateTime or RubyDateFormat.
+// Directives and flags of which outputs are not verified to be the same as RubyDateFormat (e.g., %Z, %U, %C)
+// are not supported, and years out of 0 to 9999 are not supported either since RubyDateFormat prints them
+// in its own way. Callers use RubyDateFormat for them.
+//
+// The output of the last second and the date of the last day are memoized, so for time-ordered inputs a value
+// in the same second only rewrites fractions, and a value in the same day only computes the time. Not thread-safe.
+final class StrftimeFormatter
+{
+    private static final int MIN_YEAR = 0;
+    private static final int MAX_YEAR = 9999;
+
+    private static final String[] MONTH_NAMES = {
+        "January", "February", "March", "April", "May", "June",
+        "July", "August", "September", "October", "November", "December"};
+    private static final String[] MONTH_SHORT_NAMES = {
+        "Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"};
+    // index 0 is Sunday
+    private static final String[] WEEKDAY_NAMES = {
+        "Sunday", "Monday", "Tuesday", "Wednesday", "Thursday", "Friday", "Saturday"};
+    private static final String[] WEEKDAY_SHORT_NAMES = {"Sun", "Mon", "Tue", "Wed", "Thu", "Fri", "Sat"};
+
+    // two digits of 0 to 99
+    private static final char[] TENS = new char[100];
+    private static final char[] ONES = new char[100];
+
+    private static final int[] POW10 = {1, 10, 100, 1000, 10000, 100000, 1000000, 10000000, 100000000, 1000000000};
+
+    static
+    {
+        for (int i = 0; i < 100; i++) {
+            TENS[i] = (char) ('0' + i / 10);
+            ONES[i] = (char) ('0' + i % 10);
+        }
+    }
+
+    private static final int UPPER = 1;
+    private static final int LOWER = 2;
+
+    private static final class Segment
+    {
+        private final char conversion; // 0 for a literal
+        private final String literal;
+        private final int width;
+        private final char padding; // 0 for no padding
+        private final int textCase; // 0, UPPER or LOWER
+        private final int colons;
+
+        private Segment(char conversion, String literal, int width, char padding, int textCase, int colons)
+        {
+            this.conversion = conversion;
+            this.literal = literal;
+            this.width = width;
+            this.padding = padding;
+            this.textCase = textCase;
+            this.colons = colons;
+        }
+    }
+
+    private final Segment[] segments;
+
+    // output of memoEpochSecond at memoOffsetSeconds, and positions and digits of fractions in it
+    private final StringBuilder memo = new StringBuilder();
+    private long memoEpochSecond = Long.MIN_VALUE;
+    private int memoOffsetSeconds;
+    private final int[] fractionPositions;
+    private final int[] fractionDigits;
+
+    // local date of memoDay, which is days since 1970-01-01
+    private long memoDay = Long.MIN_VALUE;
+    private boolean memoDaySupported;
+    private int year;
+    private int month;
+    private int day;
+    private int dayOfYear;
+    private int weekday; // 0 for Sunday
+
+    private StrftimeFormatter(List<Segment> segments)
+    {
+        this.segments = segments.toArray(new Segment[0]);
+        int fractions = 0;
+        for (Segment segment : this.segments) {
+            if (segment.conversion == 'L' || segment.conversion == 'N') {
+                fractions++;
+            }
+        }
+        this.fractionPositions = new int[fractions];
+        this.fractionDigits = new int[fractions];
+    }
+
+    // @return returns null if the format includes an unsupported directive
+    static StrftimeFormatter of(String format)
+    {
+        List<Segment> segments = new ArrayList<>();
+        for (StrftimeFormat.Token token : StrftimeFormat.tokenize(format)) {
+            if (token.isLiteral()) {
+                segments.add(new Segment((char) 0, token.getLiteral(), 0, (char) 0, 0, 0));
+            }
+            else if (token.isCombined()) {
+                if (!token.getFlags().isEmpty() || token.getWidth() >= 0 || token.getColons() > 0) {
+                    return null;
+                }
+                for (StrftimeFormat.Token expanded : StrftimeFormat.tokenizeExpanded(token.toString())) {
+                    Segment segment = compile(expanded);
+                    if (segment == null) {
+                        return null;
+                    }
+                    segments.add(segment);
+                }
+            }
+            else {
+                Segment segment = compile(token);
+                if (segment == null) {
+                    return null;
+                }
+                segments.add(segment);
+            }
+        }
+        return new StrftimeFormatter(segments);
+    }
+
+    // @return returns null if not supported
+    private static Segment compile(StrftimeFormat.Token token)
+    {
+        if (token.isLiteral()) {
+            return new Segment((char) 0, token.getLiteral(), 0, (char) 0, 0, 0);
+        }
+        char conversion = token.getConversion();
+        String flags = token.getFlags();
+        int width = token.getWidth();
+        if (flags.length() > 1 || (token.getColons() > 0 && conversion != 'z')) {
+            return null;
+        }
+        char flag = flags.isEmpty() ? 0 : flags.charAt(0);
+        switch (conversion) {
+            case 'Y':
+                return number(conversion, 4, '0', flag, width);
+            case 'y': case 'm': case 'd': case 'H': case 'I': case 'M': case 'S':
+                return number(conversion, 2, '0', flag, width);
+            case 'e': case 'k': case 'l':
+                return number(conversion, 2, ' ', flag, width);
+            case 'j':
+                return number(conversion, 3, '0', flag, width);
+            case 'u': case 'w':
+                return number(conversion, 1, '0', flag, width);
+            case 'A': case 'a': case 'B': case 'b': case 'h': case 'p': case 'P':
+                return text(conversion, flag, width);
+            case 'L': case 'N':
+                if (flag != 0 || width > 9 || width == 0) {
+                    return null;
+                }
+                return new Segment(conversion, null, width > 0 ? width : conversion == 'L' ? 3 : 9, (char) 0, 0, 0);
+            case 'z':
+                if (flag != 0 || width >= 0 || token.getColons() > 2) {
+                    return null;
+                }
+                return new Segment(conversion, null, 0, (char) 0, 0, token.getColons());
+            case 's':
+                if (flag != 0 || width >= 0) {
+                    return null;
+                }
+                return new Segment(conversion, null, 0, (char) 0, 0, 0);
+            case 'n': case 't':
+                if (flag != 0 || width >= 0) {
+                    return null;
+                }
+                return new Segment((char) 0, conversion == 'n' ? "\n" : "\t", 0, (char) 0, 0, 0);
+            default:
+                return null;
+        }
+    }
+
+    private static Segment number(char conversion, int defaultWidth, char defaultPadding, char flag, int width)
+    {
+        char padding;
+        switch (flag) {
+            case 0:
+                padding = defaultPadding;
+                break;
+            case '-':
+                padding = 0;
+                break;
+            case '_':
+                padding = ' ';
+                break;
+            case '0':
+                padding = '0';
+                break;
+            default:
+                return null;
+        }
+        return new Segment(conversion, null, width >= 0 ? width : defaultWidth, padding, 0, 0);
+    }
+
+    private static Segment text(char conversion, char flag, int width)
+    {
+        char padding = ' ';
+        int textCase = conversion == 'p' ? UPPER : conversion == 'P' ? LOWER : 0;
+        switch (flag) {
+            case 0: case '_':
+                break;
+            case '-':
+                padding = 0;
+                break;
+            case '0':
+                padding = '0';
+                break;
+            case '^':
+                textCase = UPPER;
+                break;
+            case '#':
+                textCase = conversion == 'p' ? LOWER : UPPER;
+                break;
+            default:
+                return null;
+        }
+        return new Segment(conversion, null, width >= 0 ? width : 0, padding, textCase, 0);
+    }
+
+    // @return returns false without appending anything if the value is not supported
+    boolean formatTo(long epochSecond, int nano, int offsetSeconds, StringBuilder buffer)
+    {
+        int start = buffer.length();
+        if (epochSecond == memoEpochSecond && offsetSeconds == memoOffsetSeconds) {
+            buffer.append(memo);
+            for (int i = 0; i < fractionPositions.length; i++) {
+                setFraction(buffer, start + fractionPositions[i], nano, fractionDigits[i]);
+            }
+            return true;
+        }
+
+        long localSeconds = epochSecond + offsetSeconds;
+        long days = Math.floorDiv(localSeconds, 86400L);
+        if (days != memoDay) {
+            setDate(days);
+        }
+        if (!memoDaySupported) {
+            return false;
+        }
+        int secondOfDay = (int) Math.floorMod(localSeconds, 86400L);
+        int hour = secondOfDay / 3600;
+        int minute = secondOfDay / 60 % 60;
+        int second = secondOfDay % 60;
+
+        int fraction = 0;
+        for (Segment segment : segments) {
+            switch (segment.conversion) {
+                case 0:
+                    buffer.append(segment.literal);
+                    break;
+                case 'Y':
+                    appendNumber(buffer, year, segment);
+                    break;
+                case 'y':
+                    appendNumber(buffer, year % 100, segment);
+                    break;
+                case 'm':
+                    appendNumber(buffer, month, segment);
+                    break;
+                case 'd': case 'e':
+                    appendNumber(buffer, day, segment);
+                    break;
+                case 'j':
+                    appendNumber(buffer, dayOfYear, segment);
+                    break;
+                case 'H': case 'k':
+                    appendNumber(buffer, hour, segment);
+                    break;
+                case 'I': case 'l':
+                    appendNumber(buffer, hour % 12 == 0 ? 12 : hour % 12, segment);
+                    break;
+                case 'M':
+                    appendNumber(buffer, minute, segment);
+                    break;
+                case 'S':
+                    appendNumber(buffer, second, segment);
+                    break;
+                case 'u':
+                    appendNumber(buffer, weekday == 0 ? 7 : weekday, segment);
+                    break;
+                case 'w':
+                    appendNumber(buffer, weekday, segment);
+                    break;
+                case 'A':
+                    appendText(buffer, WEEKDAY_NAMES[weekday], segment);
+                    break;
+                case 'a':
+                    appendText(buffer, WEEKDAY_SHORT_NAMES[weekday], segment);
+                    break;
+                case 'B':
+                    appendText(buffer, MONTH_NAMES[month - 1], segment);
+                    break;
+                case 'b': case 'h':
+                    appendText(buffer, MONTH_SHORT_NAMES[month - 1], segment);
+                    break;
+                case 'p': case 'P':
+                    appendText(buffer, hour < 12 ? "AM" : "PM", segment);
+                    break;
+                case 'L': case 'N':
+                    fractionPositions[fraction] = buffer.length() - start;
+                    fractionDigits[fraction++] = segment.width;
+                    buffer.setLength(buffer.length() + segment.width);
+                    setFraction(buffer, buffer.length() - segment.width, nano, segment.width);
+                    break;
+                case 'z':
+                    appendOffset(buffer, offsetSeconds, segment.colons);
+                    break;
+                case 's':
+                    buffer.append(epochSecond);
+                    break;
+                default:
+                    throw new AssertionError(segment.conversion);
+            }
+        }
+        memo.setLength(0);
+        memo.append(buffer, start, buffer.length());
+        memoEpochSecond = epochSecond;
+        memoOffsetSeconds = offsetSeconds;
+        return true;
+    }
+
+    // civil date from days since 1970-01-01, in the proleptic gregorian calendar as Joda-Time
+    private void setDate(long days)
+    {
+        memoDay = days;
+        long z = days + 719468;
+        long era = Math.floorDiv(z, 146097);
+        int dayOfEra = (int) (z - era * 146097);
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYearFromMarch = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int monthFromMarch = (5 * dayOfYearFromMarch + 2) / 153;
+        day = dayOfYearFromMarch - (153 * monthFromMarch + 2) / 5 + 1;
+        month = monthFromMarch < 10 ? monthFromMarch + 3 : monthFromMarch - 9;
+        long longYear = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        memoDaySupported = longYear >= MIN_YEAR && longYear <= MAX_YEAR;
+        if (!memoDaySupported) {
+            return;
+        }
+        year = (int) longYear;
+        boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+        dayOfYear = month <= 2 ? dayOfYearFromMarch - 305 : dayOfYearFromMarch + 60 + (leap ? 1 : 0);
+        weekday = (int) Math.floorMod(days + 4, 7L); // 1970-01-01 is Thursday
+    }
+
+    private static void appendNumber(StringBuilder buffer, int value, Segment segment)
+    {
+        if (segment.padding == '0' && segment.width == 2 && value < 100) {
+            buffer.append(TENS[value]).append(ONES[value]);
+            return;
+        }
+        if (segment.padding != 0) {
+            int digits = value < 10 ? 1 : value < 100 ? 2 : value < 1000 ? 3 : value < 10000 ? 4 : 5;
+            for (int i = digits; i < segment.width; i++) {
+                buffer.append(segment.padding);
+            }
+        }
+        buffer.append(value);
+    }
+
+    private static void appendText(StringBuilder buffer, String text, Segment segment)
+    {
+        if (segment.padding != 0) {
+            for (int i = text.length(); i < segment.width; i++) {
+                buffer.append(segment.padding);
+            }
+        }
+        if (segment.textCase == UPPER) {
+            buffer.append(text.toUpperCase());
+        }
+        else if (segment.textCase == LOWER) {
+            buffer.append(text.toLowerCase());
+        }
+        else {
+            buffer.append(text);
+        }
+    }
+
+    // Sets the first digits of nano of second with zero padding at the index of the buffer
+    private static void setFraction(StringBuilder buffer, int start, int nano, int digits)
+    {
+        int value = nano / POW10[9 - digits];
+        for (int i = start + digits - 1; i >= start; i--) {
+            buffer.setCharAt(i, (char) ('0' + value % 10));
+            value /= 10;
+        }
+    }
+
+    // +hhmm, +hh:mm, or +hh:mm:ss
+    private static void appendOffset(StringBuilder buffer, int offsetSeconds, int colons)
+    {
+        int abs = Math.abs(offsetSeconds);
+        int hours = abs / 3600;
+        int minutes = abs / 60 % 60;
+        buffer.append(offsetSeconds < 0 ? '-' : '+').append(TENS[hours]).append(ONES[hours]);
+        if (colons > 0) {
+            buffer.append(':');
+        }
+        buffer.append(TENS[minutes]).append(ONES[minutes]);
+        if (colons > 1) {
+            int seconds = abs % 60;
+            buffer.append(':').append(TENS[seconds]).append(ONES[seconds]);
+        }
+    }
+}
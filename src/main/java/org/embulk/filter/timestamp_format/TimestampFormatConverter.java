@@ -3,15 +3,13 @@ package org.embulk.filter.timestamp_format;
 // Convert JRuby Time Format into Java (Joda-Time) Format
 // Aimed only for parser (JRuby format is too rich than Java Format in terms of formatter)
 
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.List;
 
 public class TimestampFormatConverter
 {
     public static final HashMap<String, String> RUBY_TO_JAVA_FORMAT_TABLE = new HashMap<>();
-    private static final Pattern IDENTIFIER_PATTERN;
-    private static final Pattern NON_IDENTIFIER_PATTERN;
 
     static
     {
@@ -96,52 +94,62 @@ public class TimestampFormatConverter
         RUBY_TO_JAVA_FORMAT_TABLE.put("Z", "z");
         RUBY_TO_JAVA_FORMAT_TABLE.put("z", "Z");
         //RUBY_TO_JAVA_FORMAT_TABLE.put("%", "");
-
-        String[] array = RUBY_TO_JAVA_FORMAT_TABLE.keySet().toArray(new String[0]);
-        StringBuilder keyPatternBuilder = new StringBuilder(array[0]);
-        for (int i = 1; i < array.length; i++) {
-            keyPatternBuilder.append(array[i]);
-        }
-        IDENTIFIER_PATTERN = Pattern.compile(new StringBuilder()
-                .append("%[-_^#0-9:]*([")
-                .append(keyPatternBuilder.toString())
-                .append("])")
-                .toString());
-
-        NON_IDENTIFIER_PATTERN = Pattern.compile("(^|\\s)([^%\\s]\\S*)");
     }
 
     // @return returns null if appropriate java format is not available
     public static String toJavaFormat(String rubyFormat)
     {
-        String quotedFormat = quoteFormat(rubyFormat);
-        Matcher match = IDENTIFIER_PATTERN.matcher(quotedFormat);
-        StringBuffer buf = new StringBuffer();
-        while (match.find()) {
-            String key = match.group(1);
-            String replacement = RUBY_TO_JAVA_FORMAT_TABLE.get(key);
-            match.appendReplacement(buf, replacement);
+        StringBuilder javaFormat = new StringBuilder();
+        for (StrftimeFormat.Token token : StrftimeFormat.tokenize(rubyFormat)) {
+            if (token.isLiteral()) {
+                appendLiteral(javaFormat, token.getLiteral());
+                continue;
+            }
+            // flags and widths such as %-d, %6N, %:z change only outputs of formatters, parsers read the same.
+            // Z of Joda-Time does not read seconds of offsets of %::z such as +09:00:00
+            String replacement = RUBY_TO_JAVA_FORMAT_TABLE.get(String.valueOf(token.getConversion()));
+            if (replacement == null || (token.getColons() > 0 && (token.getConversion() != 'z' || token.getColons() > 1))) {
+                return null; // give up to use java format
+            }
+            javaFormat.append(replacement);
         }
-        match.appendTail(buf);
-        String javaFormat = buf.toString();
+        return javaFormat.toString();
+    }
 
-        if (javaFormat.contains("%")) {
-            return null; // give up to use java format
-        }
-        else {
-            return javaFormat;
+    // @return returns names of directives which have no java format in the ruby format, empty if convertible
+    public static List<String> unsupportedDirectives(String rubyFormat)
+    {
+        List<String> directives = new ArrayList<>();
+        for (StrftimeFormat.Token token : StrftimeFormat.tokenize(rubyFormat)) {
+            if (!token.isLiteral() && toJavaFormat(token.toString()) == null) {
+                directives.add(token.toString());
+            }
         }
+        return directives;
     }
 
-    private static String quoteFormat(String rubyFormat)
+    // words such as UTC or +00:00 are quoted, and single separators such as - or : are left as is.
+    // % is always quoted since a format including % is taken as a ruby format
+    private static void appendLiteral(StringBuilder javaFormat, String literal)
     {
-        Matcher match = NON_IDENTIFIER_PATTERN.matcher(rubyFormat);
-        StringBuffer buf = new StringBuffer();
-        while (match.find()) {
-            String replacement = new StringBuilder().append(match.group(1)).append("'").append(match.group(2)).append("'").toString();
-            match.appendReplacement(buf, replacement);
+        int length = literal.length();
+        int i = 0;
+        while (i < length) {
+            int start = i;
+            boolean whitespace = Character.isWhitespace(literal.charAt(i));
+            while (i < length && Character.isWhitespace(literal.charAt(i)) == whitespace) {
+                i++;
+            }
+            String word = literal.substring(start, i);
+            if (whitespace) {
+                javaFormat.append(word);
+            }
+            else if (word.length() == 1 && !Character.isLetter(word.charAt(0)) && word.charAt(0) != '\'' && word.charAt(0) != '%') {
+                javaFormat.append(word);
+            }
+            else {
+                javaFormat.append('\'').append(word.replace("'", "''")).append('\'');
+            }
         }
-        match.appendTail(buf);
-        return buf.toString();
     }
 }
@@ -66,9 +66,17 @@ public class TimestampFormatFilterPlugin implements FilterPlugin
         Boolean getStopOnInvalidRecord();
 
         @Config("timestamp_parser")
-        @ConfigDefault("\"auto\"") // or auto_java
+        @ConfigDefault("\"auto\"") // or auto_java, auto_fastest, java_time
         String getTimeStampParser();
 
+        @Config("auto_java_verify_rate")
+        @ConfigDefault("0.0") // no verification
+        double getAutoJavaVerifyRate();
+
+        @Config("auto_java_verify_max_mismatches")
+        @ConfigDefault("null") // never fails
+        Optional<Long> getAutoJavaVerifyMaxMismatches();
+
         @Config("default_from_timestamp_unit")
         @ConfigDefault("\"second\"")
         TimestampUnit getDefaultFromTimestampUnit();
@@ -119,6 +127,32 @@ public class TimestampFormatFilterPlugin implements FilterPlugin
                 throw new ConfigException(String.format("casting a json path into timestamp is not available: \"%s\"", name));
             }
         }
+
+        // throw if timestamp_parser is not valid
+        TimestampParser.validateTimestampParser(task.getTimeStampParser());
+
+        // throw if from_format_order is not valid
+        TimestampParser.isAdaptiveOrder(task.getDefaultFromFormatOrder());
+        for (ColumnConfig columnConfig : columns) {
+            if (columnConfig.getFromFormatOrder().isPresent()) {
+                TimestampParser.isAdaptiveOrder(columnConfig.getFromFormatOrder().get());
+            }
+        }
+
+        // throw if from_cache_size is negative
+        if (task.getDefaultFromCacheSize() < 0) {
+            throw new ConfigException(String.format("default_from_cache_size must not be negative: %d", task.getDefaultFromCacheSize()));
+        }
+        for (ColumnConfig columnConfig : columns) {
+            if (columnConfig.getFromCacheSize().isPresent() && columnConfig.getFromCacheSize().get() < 0) {
+                throw new ConfigException(String.format("from_cache_size must not be negative: \"%s\"", columnConfig.getName()));
+            }
+        }
+
+        // throw if auto_java_verify_rate is not a fraction
+        if (task.getAutoJavaVerifyRate() < 0.0 || task.getAutoJavaVerifyRate() > 1.0) {
+            throw new ConfigException(String.format("auto_java_verify_rate must be from 0.0 to 1.0: %s", task.getAutoJavaVerifyRate()));
+        }
     }
 
     private Schema buildOuputSchema(final PluginTask task, final Schema inputSchema)
@@ -165,12 +199,14 @@ public class TimestampFormatFilterPlugin implements FilterPlugin
             public void finish()
             {
                 pageBuilder.finish();
+                visitor.finish();
             }
 
             @Override
             public void close()
             {
                 pageBuilder.close();
+                visitor.close();
             }
 
             @Override
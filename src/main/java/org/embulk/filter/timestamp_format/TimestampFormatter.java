@@ -14,11 +14,18 @@ import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.jruby.util.RubyDateFormat;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
+import java.util.regex.Pattern;
 
 import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
 
+import java.time.Instant;
+
 public class TimestampFormatter
 {
     public interface Task
@@ -43,12 +50,41 @@ public class TimestampFormatter
         Optional<String> getToFormat();
     }
 
+    // formats ISO-8601 like formats if not null, and the other formatter is still used for values out of its range
+    private final Iso8601Formatter iso8601Formatter;
     private final RubyDateFormat jrubyFormatter;
-    private final DateTimeFormatter javaFormatter;
-    private boolean handleNanoResolution = false;
-    private boolean handleMicroResolution = false;
+    // formats a jruby format without jrubyFormatter if not null, which is still used for values out of its range
+    private final StrftimeFormatter strftimeFormatter;
+    // a java format is split at fractions (n), and each segment is printed by a formatter (null if empty)
+    // followed by digits of the fraction (0 if none). javaFormatters is null unless the format is a java format
+    private final DateTimeFormatter[] javaFormatters;
+    private final int[] fractionDigits;
+    private final boolean hasFraction;
+    private final java.time.format.DateTimeFormatter javaTimeFormatter;
     private final DateTimeZone toTimeZone;
 
+    private static final int[] POW10 = {1, 10, 100, 1000, 10000, 100000, 1000000, 10000000, 100000000, 1000000000};
+
+    // jruby %Z or %+ prints timezone names
+    private static final Pattern JRUBY_ZONE_NAME_PATTERN = Pattern.compile("%[-_0^#:0-9]*[Z+]");
+
+    // Offsets of toTimeZone are cached, and values are formatted with the fixed offset timezone of the offset,
+    // null if toTimeZone is a fixed offset timezone, or the format prints timezone names
+    private final ZoneOffsetCache zoneCache;
+    private int offsetSeconds = Integer.MIN_VALUE;
+    private DateTimeZone offsetZone;
+    private DateTimeFormatter[] offsetJavaFormatters;
+
+    private final StringBuilder buffer = new StringBuilder();
+    // output of javaFormatters at memoMilliSecond, and positions of fractions in it, as values of time-ordered
+    // inputs are often in the same second (or milli second if the format has no fractions)
+    private final StringBuilder memo = new StringBuilder();
+    private long memoMilliSecond = Long.MIN_VALUE;
+    private final int[] fractionPositions;
+    // the last DateTime given to jrubyFormatter
+    private DateTime dateTime = null;
+    private long dateTimeEpochSecond;
+
     public TimestampFormatter(PluginTask task, Optional<? extends TimestampColumnOption> columnOption)
     {
         this(columnOption.isPresent() ?
@@ -56,32 +92,146 @@ public class TimestampFormatter
                 : task.getDefaultToTimestampFormat(),
              columnOption.isPresent() ?
                 columnOption.get().getToTimeZone().or(task.getDefaultToTimeZone())
-                : task.getDefaultToTimeZone());
+                : task.getDefaultToTimeZone(),
+             TimestampParser.isJavaTime(task.getTimeStampParser()));
     }
 
     public TimestampFormatter(String format, DateTimeZone toTimeZone)
+    {
+        this(format, toTimeZone, false);
+    }
+
+    // @param useJavaTime formats with java.time instead of Joda-Time for java formats
+    public TimestampFormatter(String format, DateTimeZone toTimeZone, boolean useJavaTime)
     {
         this.toTimeZone = toTimeZone;
-        if (format.contains("%")) {
-            this.javaFormatter = null;
+        this.zoneCache = toTimeZone.isFixed() || useJavaTime || hasZoneName(format) ? null : new ZoneOffsetCache(toTimeZone);
+        this.iso8601Formatter = Iso8601Formatter.of(format, useJavaTime);
+        if (StrftimeFormat.isRubyFormat(format)) {
+            this.javaFormatters = null;
+            this.fractionDigits = null;
+            this.fractionPositions = null;
+            this.hasFraction = false;
+            this.javaTimeFormatter = null;
             this.jrubyFormatter = new RubyDateFormat(format, Locale.ENGLISH, true);
+            this.strftimeFormatter = StrftimeFormatter.of(format);
+        }
+        else if (useJavaTime) {
+            this.jrubyFormatter = null;
+            this.strftimeFormatter = null;
+            this.javaFormatters = null;
+            this.fractionDigits = null;
+            this.fractionPositions = null;
+            this.hasFraction = false;
+            this.javaTimeFormatter = JavaTimeFormat.formatterOf(format).withZone(JavaTimeFormat.toZoneId(toTimeZone));
         }
         else {
             this.jrubyFormatter = null;
-            if (format.contains("nnnnnnnnn")) {
-                this.handleNanoResolution = true;
-                String newFormat = format.replaceAll("nnnnnnnnn", "'%09d'");
-                this.javaFormatter = DateTimeFormat.forPattern(newFormat).withLocale(Locale.ENGLISH).withZone(toTimeZone);
+            this.strftimeFormatter = null;
+            this.javaTimeFormatter = null;
+            List<String> segments = new ArrayList<>();
+            List<Integer> digits = new ArrayList<>();
+            splitAtFractions(format, segments, digits);
+            this.javaFormatters = new DateTimeFormatter[segments.size()];
+            this.fractionDigits = new int[segments.size()];
+            for (int i = 0; i < segments.size(); i++) {
+                String segment = segments.get(i);
+                javaFormatters[i] = segment.isEmpty() ? null :
+                        DateTimeFormat.forPattern(segment).withLocale(Locale.ENGLISH).withZone(toTimeZone);
+                fractionDigits[i] = digits.get(i);
+            }
+            this.hasFraction = segments.size() > 1 || fractionDigits[0] > 0;
+            this.fractionPositions = new int[segments.size()];
+        }
+    }
+
+    // Splits a java format at runs of 1 to 9 n outside of quoted literals, which are fractions of the second
+    // of the number of digits. A segment is followed by the number of digits of the fraction, 0 for the last one
+    // without a fraction. Longer runs are left to Joda-Time, which rejects them.
+    private static void splitAtFractions(String format, List<String> segments, List<Integer> digits)
+    {
+        boolean quoted = false;
+        int start = 0;
+        int i = 0;
+        while (i < format.length()) {
+            char c = format.charAt(i);
+            if (c == '\'') {
+                quoted = !quoted;
+                i++;
+                continue;
+            }
+            if (quoted || c != 'n') {
+                i++;
+                continue;
+            }
+            int end = i;
+            while (end < format.length() && format.charAt(end) == 'n') {
+                end++;
+            }
+            if (end - i <= 9) {
+                segments.add(format.substring(start, i));
+                digits.add(end - i);
+                start = end;
             }
-            else if (format.contains("nnnnnn")) {
-                this.handleMicroResolution = true;
-                String newFormat = format.replaceAll("nnnnnn", "'%06d'");
-                this.javaFormatter = DateTimeFormat.forPattern(newFormat).withLocale(Locale.ENGLISH).withZone(toTimeZone);
+            i = end;
+        }
+        if (start < format.length() || segments.isEmpty()) {
+            segments.add(format.substring(start));
+            digits.add(0);
+        }
+    }
+
+    private static boolean hasZoneName(String format)
+    {
+        if (StrftimeFormat.isRubyFormat(format)) {
+            return JRUBY_ZONE_NAME_PATTERN.matcher(format).find();
+        }
+        // z, or ZZZ (timezone id) outside of quoted literals
+        boolean quoted = false;
+        for (int i = 0; i < format.length(); i++) {
+            char c = format.charAt(i);
+            if (c == '\'') {
+                quoted = !quoted;
             }
-            else {
-                this.javaFormatter = DateTimeFormat.forPattern(format).withLocale(Locale.ENGLISH).withZone(toTimeZone);
+            else if (!quoted && (c == 'z' || format.startsWith("ZZZ", i))) {
+                return true;
             }
         }
+        return false;
+    }
+
+    // @return returns the fixed offset timezone of toTimeZone at epochSecond if available, otherwise toTimeZone
+    private DateTimeZone getZone(long epochSecond)
+    {
+        if (zoneCache == null) {
+            return toTimeZone;
+        }
+        int offset = zoneCache.getOffsetSeconds(epochSecond);
+        if (offset != offsetSeconds) {
+            offsetSeconds = offset;
+            offsetZone = DateTimeZone.forOffsetMillis(offset * 1000);
+            if (javaFormatters != null) {
+                offsetJavaFormatters = new DateTimeFormatter[javaFormatters.length];
+                for (int i = 0; i < javaFormatters.length; i++) {
+                    offsetJavaFormatters[i] = javaFormatters[i] == null ? null : javaFormatters[i].withZone(offsetZone);
+                }
+            }
+        }
+        return offsetZone;
+    }
+
+    private int getOffsetSeconds(long epochSecond)
+    {
+        return zoneCache != null ? zoneCache.getOffsetSeconds(epochSecond) : toTimeZone.getOffset(epochSecond * 1000) / 1000;
+    }
+
+    private DateTimeFormatter[] getJavaFormatters(long epochSecond)
+    {
+        if (zoneCache == null) {
+            return javaFormatters;
+        }
+        getZone(epochSecond);
+        return offsetJavaFormatters;
     }
 
     public DateTimeZone getToTimeZone()
@@ -91,17 +241,36 @@ public class TimestampFormatter
 
     public void format(Timestamp value, LineEncoder encoder)
     {
-        // TODO optimize by directly appending to internal buffer
         encoder.addText(format(value));
     }
 
+    // NOTE: a formatter belongs to a column of a task, so the buffer is reused for every value of the column,
+    // and only the output String is allocated per value
     public String format(Timestamp value)
     {
-        if (jrubyFormatter != null) {
-            return jrubyFormat(value);
+        buffer.setLength(0);
+        formatTo(value, buffer);
+        return buffer.toString();
+    }
+
+    // Appends the formatted value to the buffer
+    public void formatTo(Timestamp value, StringBuilder buffer)
+    {
+        if (iso8601Formatter != null &&
+                iso8601Formatter.formatTo(value.getEpochSecond(), value.getNano(), getOffsetSeconds(value.getEpochSecond()), buffer)) {
+            return;
+        }
+        if (strftimeFormatter != null) {
+            strftimeFormatTo(value, buffer);
+        }
+        else if (jrubyFormatter != null) {
+            jrubyFormatTo(value, buffer);
         }
-        else if (javaFormatter != null) {
-            return javaFormat(value);
+        else if (javaFormatters != null) {
+            javaFormatTo(value, buffer);
+        }
+        else if (javaTimeFormatter != null) {
+            javaTimeFormatter.formatTo(Instant.ofEpochSecond(value.getEpochSecond(), value.getNano()), buffer);
         }
         else {
             assert false;
@@ -109,27 +278,74 @@ public class TimestampFormatter
         }
     }
 
-    private String jrubyFormat(Timestamp value)
+    private void strftimeFormatTo(Timestamp value, StringBuilder buffer)
     {
-        // TODO optimize by using reused StringBuilder
-        jrubyFormatter.setDateTime(new DateTime(value.getEpochSecond() * 1000, toTimeZone));
+        long epochSecond = value.getEpochSecond();
+        if (!strftimeFormatter.formatTo(epochSecond, value.getNano(), getOffsetSeconds(epochSecond), buffer)) {
+            jrubyFormatTo(value, buffer);
+        }
+    }
+
+    private void jrubyFormatTo(Timestamp value, StringBuilder buffer)
+    {
+        // NOTE: RubyDateFormat has no API to append to a StringBuilder
+        long epochSecond = value.getEpochSecond();
+        if (dateTime == null || epochSecond != dateTimeEpochSecond) {
+            // DateTime is immutable, so it is reused while values are in the same second
+            dateTime = new DateTime(epochSecond * 1000, getZone(epochSecond));
+            dateTimeEpochSecond = epochSecond;
+        }
+        jrubyFormatter.setDateTime(dateTime);
         jrubyFormatter.setNSec(value.getNano());
-        return jrubyFormatter.format(null);
+        buffer.append(jrubyFormatter.format(null));
     }
 
-    private String javaFormat(Timestamp value)
+    private void javaFormatTo(Timestamp value, StringBuilder buffer)
     {
-        if (handleNanoResolution) {
-            String datetimeFormatted = javaFormatter.print(value.getEpochSecond() * 1000);
-            return String.format(datetimeFormatted, value.getNano());
+        long epochSecond = value.getEpochSecond();
+        int nano = value.getNano();
+        // NOTE: S of a format with fractions (n) is always 0 as this plugin has been so
+        long milliSecond = hasFraction ? epochSecond * 1000 : epochSecond * 1000 + nano / 1000000;
+        int start = buffer.length();
+        if (milliSecond == memoMilliSecond) {
+            buffer.append(memo);
+            for (int i = 0; i < fractionDigits.length; i++) {
+                if (fractionDigits[i] > 0) {
+                    setFraction(buffer, start + fractionPositions[i], nano, fractionDigits[i]);
+                }
+            }
+            return;
         }
-        else if (handleMicroResolution) {
-            String datetimeFormatted = javaFormatter.print(value.getEpochSecond() * 1000);
-            return String.format(datetimeFormatted, value.getNano() / 1000);
+        DateTimeFormatter[] formatters = getJavaFormatters(epochSecond);
+        for (int i = 0; i < formatters.length; i++) {
+            if (formatters[i] != null) {
+                try {
+                    // NOTE: printTo(StringBuilder, long) is not available in older Joda-Time
+                    formatters[i].printTo((Appendable) buffer, milliSecond);
+                }
+                catch (IOException ex) {
+                    throw new UncheckedIOException(ex); // never happens with StringBuilder
+                }
+            }
+            if (fractionDigits[i] > 0) {
+                fractionPositions[i] = buffer.length() - start;
+                buffer.setLength(buffer.length() + fractionDigits[i]);
+                setFraction(buffer, start + fractionPositions[i], nano, fractionDigits[i]);
+            }
         }
-        else {
-            long milliSecond = value.getEpochSecond() * 1000 + value.getNano() / 1000000;
-            return javaFormatter.print(milliSecond);
+        memo.setLength(0);
+        memo.append(buffer, start, buffer.length());
+        memoMilliSecond = milliSecond;
+    }
+
+    // Sets the first digits of nano of second with zero padding at the index of the buffer,
+    // e.g., 001 of 1234567 for 3 digits
+    private static void setFraction(StringBuilder buffer, int start, int nano, int digits)
+    {
+        int value = nano / POW10[9 - digits];
+        for (int i = start + digits - 1; i >= start; i--) {
+            buffer.setCharAt(i, (char) ('0' + value % 10));
+            value /= 10;
         }
     }
 }
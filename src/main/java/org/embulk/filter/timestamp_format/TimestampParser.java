@@ -4,23 +4,19 @@ import com.google.common.base.Optional;
 
 import org.embulk.config.Config;
 import org.embulk.config.ConfigDefault;
+import org.embulk.config.ConfigException;
 
 import org.embulk.filter.timestamp_format.TimestampFormatFilterPlugin.PluginTask;
 
 import org.embulk.spi.time.Timestamp;
 
 import org.embulk.spi.time.TimestampParseException;
-import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
-import org.joda.time.format.DateTimeFormatter;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Locale;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
-import org.joda.time.format.DateTimeFormat;
 import org.jruby.embed.ScriptingContainer;
 
 public class TimestampParser {
@@ -32,6 +28,18 @@ public class TimestampParser {
         @Config("default_from_timestamp_format")
         @ConfigDefault("[\"%Y-%m-%d %H:%M:%S.%N %z\"]")
         List<String> getDefaultFromTimestampFormat();
+
+        @Config("default_from_format_order")
+        @ConfigDefault("\"config\"") // or adaptive
+        String getDefaultFromFormatOrder();
+
+        @Config("default_from_cache_size")
+        @ConfigDefault("0") // no cache
+        int getDefaultFromCacheSize();
+
+        @Config("default_from_string_unit")
+        @ConfigDefault("null") // numeric strings are parsed with formats
+        Optional<TimestampUnit> getDefaultFromStringUnit();
     }
 
     public interface TimestampColumnOption {
@@ -42,128 +50,537 @@ public class TimestampParser {
         @Config("from_format")
         @ConfigDefault("null")
         Optional<List<String>> getFromFormat();
+
+        @Config("from_format_order")
+        @ConfigDefault("null")
+        Optional<String> getFromFormatOrder();
+
+        @Config("from_cache_size")
+        @ConfigDefault("null")
+        Optional<Integer> getFromCacheSize();
+
+        @Config("from_string_unit")
+        @ConfigDefault("null")
+        Optional<TimestampUnit> getFromStringUnit();
     }
 
-    private final List<org.embulk.spi.time.TimestampParser> jrubyParserList = new ArrayList<>();
-    private final List<DateTimeFormatter> javaParserList = new ArrayList<>();
-    private final List<Boolean> handleNanoResolutionList = new ArrayList<>();
+    // Sample timestamps to find formats whose parser accepts texts of another format
+    private static final Timestamp[] SAMPLE_TIMESTAMPS = {
+        Timestamp.ofEpochSecond(1463065359, 123456789),
+        Timestamp.ofEpochSecond(981173106, 7000000),
+        Timestamp.ofEpochSecond(0, 0),
+    };
+    // from_format entry which is replaced with common formats, and one of them is detected from samples
+    static final String AUTO_FORMAT = "auto";
+    // Common formats, tighter ones first. All have fast path parsers
+    private static final List<String> AUTO_FORMAT_LIBRARY = Arrays.asList(
+        "%Y-%m-%d %H:%M:%S.%N %z",
+        "%Y-%m-%d %H:%M:%S %z",
+        "%Y-%m-%dT%H:%M:%S.%N%:z",
+        "%Y-%m-%dT%H:%M:%S%:z",
+        "%Y-%m-%d %H:%M:%S.%N",
+        "%Y-%m-%d %H:%M:%S",
+        "%Y-%m-%dT%H:%M:%S.%N",
+        "%Y-%m-%dT%H:%M:%S",
+        "%Y-%m-%d",
+        "%Y/%m/%d %H:%M:%S",
+        "%Y/%m/%d",
+        "%d/%b/%Y:%H:%M:%S %z",
+        "%a, %d %b %Y %H:%M:%S %z",
+        "%m/%d/%Y %H:%M:%S",
+        "%m/%d/%Y",
+        "%Y%m%d%H%M%S",
+        "%Y%m%d");
+    // Number of values to detect a format with
+    private static final int DETECT_SAMPLE_SIZE = 100;
+    // Number of values to calibrate parsers with
+    private static final int CALIBRATION_SAMPLE_SIZE = 1000;
+    // Halve hit counts at this interval so that a format which is no longer used loses its priority
+    private static final int HIT_COUNT_AGING_INTERVAL = 1024;
+
+    // NOTE: java formats are not used if jruby formats exist in the list (this has been so since ever)
+    private final List<FormatParser> parserList = new ArrayList<>();
+    // fast path parsers corresponding to each parser of parserList, null if not available
+    private final List<FormatParser> fastParserList = new ArrayList<>();
+    // shapes of texts which each parser of parserList can parse
+    private final List<FormatSignature> signatureList = new ArrayList<>();
+    // all formats in one if all are ISO-8601 like formats, otherwise null
+    private final CombinedIso8601Parser combinedParser;
     private final DateTimeZone defaultFromTimeZone;
-    private final Pattern nanoSecPattern = Pattern.compile("\\.(\\d+)");
+
+    // for adaptive format order
+    private final boolean adaptiveOrder;
+    private final int[] order; // indexes of parserList in the order to try
+    private final long[] hitCounts;
+    private final boolean[][] shadows; // shadows[i][j] (i < j) is true if parser i accepts texts of format j
+    private int numParsed = 0;
+
+    private final ParseCache cache; // null if disabled
+    private final EpochParser numberParser; // null unless from_string_unit is set
+
+    // for from_format: [auto]
+    private final List<String> usedFormatList;
+    private int detectSamples; // remaining samples to detect a format, 0 if not detecting
+    private final boolean[] candidates; // candidates[i] is true if format i parsed all samples
+    private String detectedFormat = null;
+
+    // for timestamp_parser: auto_fastest
+    private EngineCalibration calibration; // null if not calibrating
+    private int calibrationSamples;
+    private final List<String> calibrationResults = new ArrayList<>();
+
+    // jruby parsers taken from the pool of FormatPlans, and their formats, returned on close()
+    private final List<org.embulk.spi.time.TimestampParser> jrubyParsers = new ArrayList<>();
+    private final List<String> jrubyFormats = new ArrayList<>();
 
     TimestampParser(PluginTask task) {
-        this(task.getDefaultFromTimestampFormat(), task.getDefaultFromTimeZone());
+        this(task.getDefaultFromTimestampFormat(), task.getDefaultFromTimeZone(), new Options()
+                .adaptiveOrder(isAdaptiveOrder(task.getDefaultFromFormatOrder()))
+                .useJavaTime(isJavaTime(task.getTimeStampParser()))
+                .cacheSize(task.getDefaultFromCacheSize())
+                .fromStringUnit(task.getDefaultFromStringUnit().orNull())
+                .calibrateEngines(isAutoFastest(task.getTimeStampParser())));
     }
 
     public TimestampParser(PluginTask task, TimestampColumnOption columnOption) {
         this(columnOption.getFromFormat().or(task.getDefaultFromTimestampFormat()),
-             columnOption.getFromTimeZone().or(task.getDefaultFromTimeZone()));
+             columnOption.getFromTimeZone().or(task.getDefaultFromTimeZone()), new Options()
+                .adaptiveOrder(isAdaptiveOrder(columnOption.getFromFormatOrder().or(task.getDefaultFromFormatOrder())))
+                .useJavaTime(isJavaTime(task.getTimeStampParser()))
+                .cacheSize(columnOption.getFromCacheSize().or(task.getDefaultFromCacheSize()))
+                .fromStringUnit(columnOption.getFromStringUnit().or(task.getDefaultFromStringUnit()).orNull())
+                .calibrateEngines(isAutoFastest(task.getTimeStampParser())));
     }
 
     public TimestampParser(List<String> formatList, DateTimeZone defaultFromTimeZone) {
+        this(formatList, defaultFromTimeZone, new Options());
+    }
+
+    TimestampParser(List<String> formatList, DateTimeZone defaultFromTimeZone, Options options) {
         // TODO get default current time from ExecTask.getExecTimestamp
+        boolean detect = formatList.contains(AUTO_FORMAT);
+        formatList = expandAutoFormat(formatList);
+        boolean hasJRubyFormat = false;
+        for (String format : formatList) {
+            hasJRubyFormat |= StrftimeFormat.isRubyFormat(format);
+        }
+        this.defaultFromTimeZone = defaultFromTimeZone;
+        List<String> usedFormatList = new ArrayList<>();
         for (String format : formatList) {
-            if (format.contains("%")) {
-                org.embulk.spi.time.TimestampParser parser = createTimestampParser(format, defaultFromTimeZone);
-                this.jrubyParserList.add(parser);
-            } else {
-                // special treatment for nano resolution. n is not originally supported by Joda-Time
-                if (format.contains("nnnnnnnnn")) {
-                    this.handleNanoResolutionList.add(true);
-                    String newFormat = format.replaceAll("n", "S");
-                    DateTimeFormatter parser = DateTimeFormat.forPattern(newFormat).withLocale(Locale.ENGLISH).withZone(defaultFromTimeZone);
-                    this.javaParserList.add(parser);
+            if (StrftimeFormat.isRubyFormat(format)) {
+                this.parserList.add(new JRubyFormatParser(acquireJrubyParser(format)));
+                this.fastParserList.add(createFastParser(format, defaultFromTimeZone));
+                this.signatureList.add(FormatPlans.signatureOf(format));
+                usedFormatList.add(format);
+            }
+            else if (!hasJRubyFormat) {
+                if (options.useJavaTime) {
+                    this.parserList.add(new JavaTimeFormatParser(format, defaultFromTimeZone));
+                    // fast path parsers drop digits after milli second of S as Joda-Time
+                    this.fastParserList.add(format.contains("S") ? null : createFastParser(format, defaultFromTimeZone));
                 }
                 else {
-                    this.handleNanoResolutionList.add(false);
-                    DateTimeFormatter parser = DateTimeFormat.forPattern(format).withLocale(Locale.ENGLISH).withZone(defaultFromTimeZone);
-                    this.javaParserList.add(parser);
+                    this.parserList.add(new JodaFormatParser(format, defaultFromTimeZone));
+                    this.fastParserList.add(createFastParser(format, defaultFromTimeZone));
                 }
+                this.signatureList.add(FormatPlans.signatureOf(format));
+                usedFormatList.add(format);
             }
         }
-        this.defaultFromTimeZone = defaultFromTimeZone;
+        this.combinedParser = createCombinedParser(fastParserList, defaultFromTimeZone);
+
+        int size = parserList.size();
+        this.adaptiveOrder = options.adaptiveOrder && size > 1;
+        this.order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        this.hitCounts = new long[size];
+        this.shadows = this.adaptiveOrder ? FormatPlans.shadowsOf(hasJRubyFormat ? "jruby" : options.useJavaTime ? "java_time" : "joda",
+                usedFormatList, defaultFromTimeZone, () -> buildShadows(usedFormatList, defaultFromTimeZone)) : null;
+        this.cache = options.cacheSize > 0 ? new ParseCache(options.cacheSize) : null;
+        this.numberParser = options.fromStringUnit == null ? null : new EpochParser(options.fromStringUnit, true);
+        this.usedFormatList = usedFormatList;
+        this.detectSamples = detect && size > 1 ? DETECT_SAMPLE_SIZE : 0;
+        this.candidates = new boolean[size];
+        Arrays.fill(candidates, true);
+        if (options.calibrateEngines && hasJRubyFormat) {
+            // auto_fastest and java_time are values of the same option, so converted formats are always of Joda-Time
+            this.calibration = new EngineCalibration(usedFormatList, javaFormat -> new JodaFormatParser(javaFormat, defaultFromTimeZone));
+            this.calibrationSamples = CALIBRATION_SAMPLE_SIZE;
+        }
     }
 
-    public DateTimeZone getDefaultFromTimeZone() {
-        return defaultFromTimeZone;
+    // Replace "auto" with common formats. They are java formats if other formats are java formats, since
+    // java formats are not used together with ruby formats
+    static List<String> expandAutoFormat(List<String> formatList) {
+        if (!formatList.contains(AUTO_FORMAT)) {
+            return formatList;
+        }
+        boolean hasJavaFormat = false;
+        for (String format : formatList) {
+            hasJavaFormat |= !format.equals(AUTO_FORMAT) && !StrftimeFormat.isRubyFormat(format);
+        }
+        List<String> expanded = new ArrayList<>();
+        for (String format : formatList) {
+            if (!format.equals(AUTO_FORMAT)) {
+                expanded.add(format);
+                continue;
+            }
+            for (String libraryFormat : AUTO_FORMAT_LIBRARY) {
+                String libraryFormatToAdd = hasJavaFormat ? TimestampFormatConverter.toJavaFormat(libraryFormat) : libraryFormat;
+                if (!expanded.contains(libraryFormatToAdd)) {
+                    expanded.add(libraryFormatToAdd);
+                }
+            }
+        }
+        return expanded;
     }
 
-    public Timestamp parse(String text) throws TimestampParseException, IllegalArgumentException {
-        if (!jrubyParserList.isEmpty()) {
-            return jrubyParse(text);
-        } else if (!javaParserList.isEmpty()) {
-            return javaParse(text);
-        } else {
-            assert false;
-            throw new RuntimeException();
+    // @return returns null if the format is parsed only by the original parser
+    private static FormatParser createFastParser(String format, DateTimeZone timezone) {
+        FormatParser parser = EpochParser.of(format);
+        if (parser == null) {
+            parser = Iso8601Parser.of(format, timezone);
         }
+        if (parser == null) {
+            parser = CompiledFormatParser.of(format, timezone);
+        }
+        return parser;
+    }
+
+    // @return returns true if the format is parsed by a fast path parser before the original parser
+    static boolean hasFastParser(String format, DateTimeZone timezone) {
+        return createFastParser(format, timezone) != null;
+    }
+
+    // @return returns null unless there are 2 or more formats and all are ISO-8601 like formats
+    private static CombinedIso8601Parser createCombinedParser(List<FormatParser> fastParserList, DateTimeZone timezone) {
+        if (fastParserList.size() < 2) {
+            return null;
+        }
+        List<Iso8601Parser> isoParserList = new ArrayList<>();
+        for (FormatParser parser : fastParserList) {
+            if (!(parser instanceof Iso8601Parser)) {
+                return null;
+            }
+            isoParserList.add((Iso8601Parser) parser);
+        }
+        return new CombinedIso8601Parser(isoParserList, timezone);
     }
 
-    private Timestamp jrubyParse(String text) throws TimestampParseException {
-        Timestamp timestamp = null;
-        TimestampParseException exception = null;
+    // throws if timestamp_parser is not valid
+    public static void validateTimestampParser(String timestampParser) {
+        if (!Arrays.asList("auto", "auto_java", "auto_fastest", "java_time").contains(timestampParser)) {
+            throw new ConfigException(String.format(
+                    "timestamp_parser must be \"auto\", \"auto_java\", \"auto_fastest\" or \"java_time\": \"%s\"", timestampParser));
+        }
+    }
 
-        org.embulk.spi.time.TimestampParser parser = null;
-        for (org.embulk.spi.time.TimestampParser p : jrubyParserList) {
-            parser = p;
+    public static boolean isAutoJava(String timestampParser) {
+        return timestampParser.equals("auto_java");
+    }
+
+    public static boolean isJavaTime(String timestampParser) {
+        return timestampParser.equals("java_time");
+    }
+
+    public static boolean isAutoFastest(String timestampParser) {
+        return timestampParser.equals("auto_fastest");
+    }
+
+    public static boolean isAdaptiveOrder(String formatOrder) {
+        if (formatOrder.equals("adaptive")) {
+            return true;
+        }
+        else if (formatOrder.equals("config")) {
+            return false;
+        }
+        throw new ConfigException(String.format("from_format_order must be \"config\" or \"adaptive\": \"%s\"", formatOrder));
+    }
+
+    // To keep results deterministic, a format is never tried before an earlier format of from_format
+    // if the earlier one could also parse its texts. Whether it could is checked with sample texts.
+    private boolean[][] buildShadows(List<String> formatList, DateTimeZone timezone) {
+        int size = formatList.size();
+        boolean[][] shadows = new boolean[size][size];
+        for (int j = 1; j < size; j++) {
+            List<String> texts = new ArrayList<>();
             try {
-                // NOTE: embulk >= 0.8.27 uses new faster jruby timestamp parser, and it supports nano second
-                // NOTE: embulk < 0.8.27 uses old slower jruby timestamp parser, and it supports micro second
-                timestamp = parser.parse(text);
-                break;
-            } catch (TimestampParseException ex) {
-                exception = ex;
+                for (DateTimeZone zone : new DateTimeZone[] {timezone, DateTimeZone.UTC}) {
+                    TimestampFormatter formatter = new TimestampFormatter(formatList.get(j), zone);
+                    for (Timestamp timestamp : SAMPLE_TIMESTAMPS) {
+                        texts.add(formatter.format(timestamp));
+                    }
+                }
+            }
+            catch (RuntimeException ex) {
+                for (int i = 0; i < j; i++) {
+                    shadows[i][j] = true; // could not tell, keep the order
+                }
+                continue;
+            }
+            for (int i = 0; i < j; i++) {
+                for (String text : texts) {
+                    if (parseWith(i, text) != null) {
+                        shadows[i][j] = true;
+                        break;
+                    }
+                }
             }
         }
+        return shadows;
+    }
+
+    public DateTimeZone getDefaultFromTimeZone() {
+        return defaultFromTimeZone;
+    }
+
+    // @return returns hit count of the parse result cache, or -1 if the cache is disabled
+    public long getCacheHits() {
+        return cache == null ? -1 : cache.getHits();
+    }
+
+    // @return returns miss count of the parse result cache, or -1 if the cache is disabled
+    public long getCacheMisses() {
+        return cache == null ? -1 : cache.getMisses();
+    }
+
+    public Timestamp parse(String text) throws TimestampParseException, IllegalArgumentException {
+        return parse((CharSequence) text);
+    }
+
+    // text can be a view such as AsciiCharSequence, which is converted into a String only if required
+    public Timestamp parse(CharSequence text) throws TimestampParseException, IllegalArgumentException {
+        if (numberParser != null) {
+            Timestamp timestamp = numberParser.parse(text);
+            if (timestamp != null) {
+                return timestamp;
+            }
+        }
+        if (cache == null) {
+            return parseUncached(text);
+        }
+        String key = text.toString();
+        Timestamp timestamp = cache.lookup(key);
         if (timestamp == null) {
-            throw exception;
+            timestamp = parseUncached(key); // invalid texts are not cached, they throw
+            cache.put(key, timestamp);
         }
         return timestamp;
     }
 
-    private Timestamp javaParse(String text) throws IllegalArgumentException {
-        long msec = -1;
-        long nsec = -1;
-        Boolean handleNanoResolution = false;
-        IllegalArgumentException exception = null;
+    private Timestamp parseUncached(CharSequence text) {
+        if (calibration == null) {
+            return parseFormats(text);
+        }
+        try {
+            return parseFormats(text);
+        }
+        finally {
+            // invalid texts are counted too, not to calibrate forever on a column of them
+            if (--calibrationSamples == 0) {
+                finishCalibration();
+            }
+        }
+    }
 
-        for (int i = 0; i < javaParserList.size(); i++) {
-            DateTimeFormatter parser = javaParserList.get(i);
-            handleNanoResolution = handleNanoResolutionList.get(i);
-            try {
-                if (handleNanoResolution) {
-                    nsec = parseNano(text);
+    private Timestamp parseFormats(CharSequence text) {
+        if (detectSamples > 0) {
+            return parseDetecting(text);
+        }
+        if (combinedParser != null) {
+            Timestamp timestamp = combinedParser.parse(text);
+            if (timestamp != null) {
+                return timestamp;
+            }
+        }
+        // try formats in order. a mismatch is told by null, exceptions are not thrown until all fail
+        for (int k = 0; k < order.length; k++) {
+            Timestamp timestamp = parseWith(order[k], text);
+            if (timestamp != null) {
+                if (adaptiveOrder) {
+                    hit(k);
                 }
-                DateTime dateTime = parser.parseDateTime(text);
-                msec = dateTime.getMillis(); // NOTE: milli second resolution
-                break;
-            } catch (IllegalArgumentException ex) {
-                exception = ex;
+                return timestamp;
+            }
+        }
+        throw new IllegalArgumentException(String.format("Invalid format: \"%s\"", text));
+    }
+
+    private Timestamp parseWith(int i, CharSequence text) {
+        if (calibration != null) {
+            return parseCalibrating(i, text);
+        }
+        FormatParser fastParser = fastParserList.get(i);
+        if (fastParser != null && combinedParser == null) {
+            Timestamp timestamp = fastParser.parse(text);
+            if (timestamp != null) {
+                return timestamp;
+            }
+        }
+        if (!signatureList.get(i).matches(text)) {
+            return null;
+        }
+        return parserList.get(i).parse(text);
+    }
+
+    // Parse with all formats to find formats which parse all samples. Invalid texts are not samples
+    private Timestamp parseDetecting(CharSequence text) {
+        Timestamp result = null;
+        boolean[] accepted = new boolean[candidates.length];
+        for (int i = 0; i < candidates.length; i++) {
+            if (!candidates[i] && result != null) {
+                continue;
+            }
+            Timestamp timestamp = parseWith(i, text);
+            accepted[i] = timestamp != null;
+            if (result == null) {
+                result = timestamp; // the first format in the list wins as usual
+            }
+        }
+        if (result == null) {
+            throw new IllegalArgumentException(String.format("Invalid format: \"%s\"", text));
+        }
+        for (int i = 0; i < candidates.length; i++) {
+            candidates[i] &= accepted[i];
+        }
+        if (--detectSamples == 0) {
+            lockDetectedFormat();
+        }
+        return result;
+    }
+
+    // Try the first format which parsed all samples first, and the others in the configured order only on mismatch
+    private void lockDetectedFormat() {
+        for (int i = 0; i < candidates.length; i++) {
+            if (candidates[i]) {
+                int k = 0;
+                order[k++] = i;
+                for (int j = 0; j < candidates.length; j++) {
+                    if (j != i) {
+                        order[k++] = j;
+                    }
+                }
+                this.detectedFormat = usedFormatList.get(i);
+                return;
             }
         }
-        if (msec == -1) {
-            throw exception;
+    }
+
+    // @return returns the format detected for from_format: [auto], or null if not detected (yet)
+    public String getDetectedFormat() {
+        return detectedFormat;
+    }
+
+    // Parse with the original parser (and the java parser) even if the fast path matches, to measure them on real input
+    private Timestamp parseCalibrating(int i, CharSequence text) {
+        Timestamp timestamp = calibration.parse(i, parserList.get(i), text);
+        FormatParser fastParser = fastParserList.get(i);
+        if (fastParser != null && combinedParser == null) {
+            Timestamp fastTimestamp = fastParser.parse(text);
+            if (fastTimestamp != null) {
+                return fastTimestamp;
+            }
         }
+        return timestamp;
+    }
 
-        if (handleNanoResolution) {
-            long sec = msec / 1000;
-            return Timestamp.ofEpochSecond(sec, nsec);
+    private void finishCalibration() {
+        for (int i = 0; i < parserList.size(); i++) {
+            if (calibration.isJavaFaster(i)) {
+                parserList.set(i, calibration.getJavaParser(i));
+            }
+            calibrationResults.add(calibration.describe(i, usedFormatList.get(i)));
         }
-        else {
-            long nanoAdjustment = msec * 1000000;
-            return Timestamp.ofEpochSecond(0, nanoAdjustment);
+        this.calibration = null;
+    }
+
+    // Takes a jruby parser of a format from the pool to use until close()
+    org.embulk.spi.time.TimestampParser acquireJrubyParser(String format) {
+        org.embulk.spi.time.TimestampParser parser = FormatPlans.acquireJrubyParser(format, defaultFromTimeZone,
+                f -> createTimestampParser(f, defaultFromTimeZone));
+        jrubyParsers.add(parser);
+        jrubyFormats.add(format);
+        return parser;
+    }
+
+    // Returns jruby parsers to the pool for other tasks, called at the end of a task. Not usable any more
+    void close() {
+        for (int i = 0; i < jrubyParsers.size(); i++) {
+            FormatPlans.releaseJrubyParser(jrubyFormats.get(i), defaultFromTimeZone, jrubyParsers.get(i));
         }
+        jrubyParsers.clear();
+        jrubyFormats.clear();
+    }
+
+    // @return returns decisions of timestamp_parser: auto_fastest per format, empty until calibrated
+    public List<String> getCalibrationResults() {
+        return calibrationResults;
     }
 
-    private long parseNano(String text) {
-        long nsec = -1;
-        Matcher m = nanoSecPattern.matcher(text);
-        if (m.find()) {
-            //String nanoStr = String.format("%-9s", m.group(1)).replace(" ", "0");
-            //nsec = Long.parseLong(nanoStr);
-            String nanoStr = m.group(1);
-            nsec = Long.parseLong(nanoStr) * (long) Math.pow(10, 9 - nanoStr.length());
+    // Move the format which succeeded forward while it has more hits than the previous one
+    private void hit(int k) {
+        if (++numParsed % HIT_COUNT_AGING_INTERVAL == 0) {
+            for (int i = 0; i < hitCounts.length; i++) {
+                hitCounts[i] >>= 1;
+            }
+        }
+        int j = order[k];
+        hitCounts[j]++;
+        while (k > 0) {
+            int i = order[k - 1];
+            if (hitCounts[j] <= hitCounts[i] || (i < j && shadows[i][j])) {
+                break;
+            }
+            order[k - 1] = j;
+            order[k] = i;
+            k--;
+        }
+    }
+
+    // Options of a parser other than formats and a timezone, all disabled by default
+    static final class Options {
+        private boolean adaptiveOrder = false;
+        private boolean useJavaTime = false;
+        private int cacheSize = 0;
+        private TimestampUnit fromStringUnit = null;
+        private boolean calibrateEngines = false;
+
+        // tries formats which succeed more often first
+        Options adaptiveOrder(boolean adaptiveOrder) {
+            this.adaptiveOrder = adaptiveOrder;
+            return this;
+        }
+
+        // parses java formats with java.time instead of Joda-Time
+        Options useJavaTime(boolean useJavaTime) {
+            this.useJavaTime = useJavaTime;
+            return this;
+        }
+
+        // caches parse results of this number of distinct texts at most, 0 to disable
+        Options cacheSize(int cacheSize) {
+            this.cacheSize = cacheSize;
+            return this;
+        }
+
+        // reads numeric texts such as "1436713200" as epoch of this unit before formats, null to disable
+        Options fromStringUnit(TimestampUnit fromStringUnit) {
+            this.fromStringUnit = fromStringUnit;
+            return this;
+        }
+
+        TimestampUnit getFromStringUnit() {
+            return fromStringUnit;
+        }
+
+        // chooses jruby or java parsers of converted formats per format, whichever is faster on first values
+        // if they agree
+        Options calibrateEngines(boolean calibrateEngines) {
+            this.calibrateEngines = calibrateEngines;
+            return this;
         }
-        return nsec;
     }
 
     private class TimestampParserTaskImpl implements org.embulk.spi.time.TimestampParser.Task
@@ -249,7 +666,7 @@ public class TimestampParser {
 
     // ToDo: Replace with `TimestampParser.of(Task, TimestampColumnOption)`
     // after deciding to drop supporting embulk < 0.8.29.
-    private org.embulk.spi.time.TimestampParser createTimestampParser(String format, DateTimeZone timezone)
+    org.embulk.spi.time.TimestampParser createTimestampParser(String format, DateTimeZone timezone)
     {
         return createTimestampParser(format, timezone, "1970-01-01");
     }
@@ -0,0 +1,130 @@
+package org.embulk.filter.timestamp_format;
+
+import org.embulk.spi.Exec;
+import org.embulk.spi.time.Timestamp;
+import org.embulk.spi.time.TimestampParseException;
+import org.joda.time.DateTimeZone;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Parser of java formats converted by timestamp_parser: auto_java, which re-parses a fraction of texts with
+// the original ruby formats, and counts texts whose results differ (including texts only one of them parses)
+//
+// Texts are re-parsed by the jruby parsers of the original formats only, without fast paths, which are
+// verified as well as the conversion by this.
+// Texts are sampled at a fixed interval so that results are reproducible. Not thread-safe.
+class VerifyingTimestampParser extends TimestampParser
+{
+    private static final Logger logger = Exec.getLogger(TimestampFormatFilterPlugin.class);
+    // mismatches are logged with texts up to this number per column
+    private static final int MAX_LOGGED_MISMATCHES = 10;
+
+    private final String name;
+    private final List<FormatParser> originalParsers;
+    private final EpochParser originalNumberParser; // null unless from_string_unit is set
+    private final double rate;
+    private final long maxMismatches; // negative to never fail
+    private double credit = 0;
+    private long verified = 0;
+    private long mismatches = 0;
+
+    // @param rate fraction of texts to verify, 0.0 to 1.0
+    // @param maxMismatches throws if mismatches exceed this number, negative to never throw
+    VerifyingTimestampParser(String name, List<String> formatList, List<String> originalFormatList, DateTimeZone defaultFromTimeZone,
+                             TimestampParser.Options options, double rate, long maxMismatches)
+    {
+        super(formatList, defaultFromTimeZone, options);
+        TimestampUnit fromStringUnit = options.getFromStringUnit();
+        this.name = name;
+        this.originalParsers = new ArrayList<>();
+        for (String format : originalFormatList) {
+            originalParsers.add(new JRubyFormatParser(acquireJrubyParser(format)));
+        }
+        this.originalNumberParser = fromStringUnit == null ? null : new EpochParser(fromStringUnit, true);
+        this.rate = rate;
+        this.maxMismatches = maxMismatches;
+    }
+
+    // @param originalParsers parsers of the original formats to verify results with, e.g., jruby parsers
+    VerifyingTimestampParser(String name, List<String> formatList, List<FormatParser> originalParsers, DateTimeZone defaultFromTimeZone,
+                             double rate, long maxMismatches)
+    {
+        super(formatList, defaultFromTimeZone, new TimestampParser.Options());
+        this.name = name;
+        this.originalParsers = originalParsers;
+        this.originalNumberParser = null;
+        this.rate = rate;
+        this.maxMismatches = maxMismatches;
+    }
+
+    @Override
+    public Timestamp parse(CharSequence text) throws TimestampParseException, IllegalArgumentException
+    {
+        credit += rate;
+        if (credit < 1.0) {
+            return super.parse(text);
+        }
+        credit -= 1.0;
+        Timestamp timestamp;
+        try {
+            timestamp = super.parse(text);
+        }
+        catch (TimestampParseException | IllegalArgumentException ex) {
+            verify(text, null);
+            throw ex;
+        }
+        verify(text, timestamp);
+        return timestamp;
+    }
+
+    private void verify(CharSequence text, Timestamp timestamp)
+    {
+        Timestamp expected = parseOriginal(text);
+        verified++;
+        if (expected == null ? timestamp == null : expected.equals(timestamp)) {
+            return;
+        }
+        mismatches++;
+        if (mismatches <= MAX_LOGGED_MISMATCHES) {
+            logger.warn(String.format("%s: java parser differs from ruby parser: \"%s\" => %s (ruby: %s)", name, text, timestamp, expected));
+        }
+        if (maxMismatches >= 0 && mismatches > maxMismatches) {
+            throw new IllegalStateException(String.format("%s: java parser differed from ruby parser on %d values, more than auto_java_verify_max_mismatches %d",
+                    name, mismatches, maxMismatches));
+        }
+    }
+
+    private Timestamp parseOriginal(CharSequence text)
+    {
+        if (originalNumberParser != null) {
+            Timestamp timestamp = originalNumberParser.parse(text);
+            if (timestamp != null) {
+                return timestamp;
+            }
+        }
+        for (FormatParser parser : originalParsers) {
+            try {
+                Timestamp timestamp = parser.parse(text);
+                if (timestamp != null) {
+                    return timestamp;
+                }
+            }
+            catch (IllegalArgumentException ex) {
+                // invalid field value, try the next one as TimestampParser does
+            }
+        }
+        return null;
+    }
+
+    long getVerified()
+    {
+        return verified;
+    }
+
+    long getMismatches()
+    {
+        return mismatches;
+    }
+}
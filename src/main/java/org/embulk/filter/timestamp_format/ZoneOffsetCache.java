@@ -0,0 +1,84 @@
+package org.embulk.filter.timestamp_format;
+
+import org.joda.time.DateTimeZone;
+
+// Cache of timezone offsets for a window between transitions
+//
+// Offsets of a named timezone such as America/New_York are looked up through transitions of the timezone,
+// so this keeps the last window where the offset does not change, and answers offsets with a range check
+// while values stay in the window. Fixed offset timezones such as UTC or +09:00 are answered directly.
+// Not thread-safe, a cache belongs to a parser or a formatter of a task.
+class ZoneOffsetCache
+{
+    static final int GAP = Integer.MIN_VALUE;
+
+    // local times within this margin of a transition can be ambiguous or in a gap
+    private static final long MARGIN_SECONDS = 86400;
+
+    private final DateTimeZone zone;
+    private final boolean fixed;
+    private final int fixedOffset;
+
+    // window of epoch seconds where the offset is constant, empty at first
+    private long start = 1;
+    private long end = 0;
+    private int offset;
+
+    // window of local seconds which map to localOffset unambiguously, empty at first
+    private long localStart = 1;
+    private long localEnd = 0;
+    private int localOffset;
+
+    ZoneOffsetCache(DateTimeZone zone)
+    {
+        this.zone = zone;
+        this.fixed = zone.isFixed();
+        this.fixedOffset = zone.getOffset(0L) / 1000;
+    }
+
+    DateTimeZone getZone()
+    {
+        return zone;
+    }
+
+    // @return returns offset seconds at epochSecond
+    int getOffsetSeconds(long epochSecond)
+    {
+        if (fixed) {
+            return fixedOffset;
+        }
+        if (epochSecond >= start && epochSecond < end) {
+            return offset;
+        }
+        long millis = epochSecond * 1000;
+        long previous = zone.previousTransition(millis + 1);
+        long next = zone.nextTransition(millis);
+        this.offset = zone.getOffset(millis) / 1000;
+        this.start = previous == millis + 1 ? Long.MIN_VALUE : Math.floorDiv(previous + 999, 1000);
+        this.end = next == millis ? Long.MAX_VALUE : Math.floorDiv(next, 1000);
+        return offset;
+    }
+
+    // @return returns offset seconds of the local time, or GAP if the local time is in a DST gap.
+    // An overlapped local time has the earlier offset as Joda-Time.
+    int getOffsetSecondsFromLocal(long localSeconds)
+    {
+        if (fixed) {
+            return fixedOffset;
+        }
+        if (localSeconds >= localStart && localSeconds < localEnd) {
+            return localOffset;
+        }
+        long localMillis = localSeconds * 1000;
+        int offsetMillis = zone.getOffsetFromLocal(localMillis);
+        long epochMillis = localMillis - offsetMillis;
+        if (offsetMillis != zone.getOffset(epochMillis)) {
+            return GAP;
+        }
+        getOffsetSeconds(Math.floorDiv(epochMillis, 1000L));
+        this.localOffset = offset;
+        this.localStart = start == Long.MIN_VALUE ? Long.MIN_VALUE : start + offset + MARGIN_SECONDS;
+        this.localEnd = end == Long.MAX_VALUE ? Long.MAX_VALUE : end + offset - MARGIN_SECONDS;
+        return offsetMillis / 1000;
+    }
+}
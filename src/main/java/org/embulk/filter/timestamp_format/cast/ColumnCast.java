@@ -0,0 +1,199 @@
+package org.embulk.filter.timestamp_format.cast;
+
+import org.embulk.filter.timestamp_format.TimestampFormatter;
+import org.embulk.filter.timestamp_format.TimestampParser;
+import org.embulk.filter.timestamp_format.TimestampUnit;
+import org.embulk.spi.Column;
+import org.embulk.spi.DataException;
+import org.embulk.spi.PageBuilder;
+import org.embulk.spi.time.Timestamp;
+import org.embulk.spi.type.DoubleType;
+import org.embulk.spi.type.LongType;
+import org.embulk.spi.type.StringType;
+import org.embulk.spi.type.TimestampType;
+import org.embulk.spi.type.Type;
+
+// Cast of values of a column into the output type of the column, selected once per column by the output type
+// so that a value goes through no type checks. A method per input type casts values of the type.
+public interface ColumnCast
+{
+    void setFromLong(PageBuilder pageBuilder, Column outputColumn, long value) throws DataException;
+
+    void setFromDouble(PageBuilder pageBuilder, Column outputColumn, double value) throws DataException;
+
+    void setFromString(PageBuilder pageBuilder, Column outputColumn, String value) throws DataException;
+
+    void setFromTimestamp(PageBuilder pageBuilder, Column outputColumn, Timestamp value) throws DataException;
+
+    // @param formatter required if the output type is string
+    // @param toUnit required if the output type is long or double
+    static ColumnCast of(Type outputType, TimestampParser parser, TimestampFormatter formatter,
+                         TimestampUnit fromUnit, TimestampUnit toUnit)
+    {
+        if (outputType instanceof StringType) {
+            return new ToString(parser, formatter, fromUnit);
+        }
+        else if (outputType instanceof TimestampType) {
+            return new ToTimestamp(parser, fromUnit);
+        }
+        else if (outputType instanceof LongType) {
+            return new ToLong(parser, fromUnit, toUnit);
+        }
+        else if (outputType instanceof DoubleType) {
+            return new ToDouble(parser, fromUnit, toUnit);
+        }
+        else {
+            throw new IllegalArgumentException(String.format("casting to %s is not available", outputType));
+        }
+    }
+
+    final class ToString implements ColumnCast
+    {
+        private final TimestampParser parser;
+        private final TimestampFormatter formatter;
+        private final TimestampUnit fromUnit;
+
+        private ToString(TimestampParser parser, TimestampFormatter formatter, TimestampUnit fromUnit)
+        {
+            this.parser = parser;
+            this.formatter = formatter;
+            this.fromUnit = fromUnit;
+        }
+
+        @Override
+        public void setFromLong(PageBuilder pageBuilder, Column outputColumn, long value)
+        {
+            pageBuilder.setString(outputColumn, LongCast.asString(value, fromUnit, formatter));
+        }
+
+        @Override
+        public void setFromDouble(PageBuilder pageBuilder, Column outputColumn, double value)
+        {
+            pageBuilder.setString(outputColumn, DoubleCast.asString(value, fromUnit, formatter));
+        }
+
+        @Override
+        public void setFromString(PageBuilder pageBuilder, Column outputColumn, String value)
+        {
+            pageBuilder.setString(outputColumn, StringCast.asString(value, parser, formatter));
+        }
+
+        @Override
+        public void setFromTimestamp(PageBuilder pageBuilder, Column outputColumn, Timestamp value)
+        {
+            pageBuilder.setString(outputColumn, TimestampCast.asString(value, formatter));
+        }
+    }
+
+    final class ToTimestamp implements ColumnCast
+    {
+        private final TimestampParser parser;
+        private final TimestampUnit fromUnit;
+
+        private ToTimestamp(TimestampParser parser, TimestampUnit fromUnit)
+        {
+            this.parser = parser;
+            this.fromUnit = fromUnit;
+        }
+
+        @Override
+        public void setFromLong(PageBuilder pageBuilder, Column outputColumn, long value)
+        {
+            pageBuilder.setTimestamp(outputColumn, LongCast.asTimestamp(value, fromUnit));
+        }
+
+        @Override
+        public void setFromDouble(PageBuilder pageBuilder, Column outputColumn, double value)
+        {
+            pageBuilder.setTimestamp(outputColumn, DoubleCast.asTimestamp(value, fromUnit));
+        }
+
+        @Override
+        public void setFromString(PageBuilder pageBuilder, Column outputColumn, String value)
+        {
+            pageBuilder.setTimestamp(outputColumn, StringCast.asTimestamp(value, parser));
+        }
+
+        @Override
+        public void setFromTimestamp(PageBuilder pageBuilder, Column outputColumn, Timestamp value)
+        {
+            pageBuilder.setTimestamp(outputColumn, value);
+        }
+    }
+
+    final class ToLong implements ColumnCast
+    {
+        private final TimestampParser parser;
+        private final TimestampUnit fromUnit;
+        private final TimestampUnit toUnit;
+
+        private ToLong(TimestampParser parser, TimestampUnit fromUnit, TimestampUnit toUnit)
+        {
+            this.parser = parser;
+            this.fromUnit = fromUnit;
+            this.toUnit = toUnit;
+        }
+
+        @Override
+        public void setFromLong(PageBuilder pageBuilder, Column outputColumn, long value)
+        {
+            pageBuilder.setLong(outputColumn, LongCast.asLong(value, fromUnit, toUnit));
+        }
+
+        @Override
+        public void setFromDouble(PageBuilder pageBuilder, Column outputColumn, double value)
+        {
+            pageBuilder.setLong(outputColumn, DoubleCast.asLong(value, fromUnit, toUnit));
+        }
+
+        @Override
+        public void setFromString(PageBuilder pageBuilder, Column outputColumn, String value)
+        {
+            pageBuilder.setLong(outputColumn, StringCast.asLong(value, parser, toUnit));
+        }
+
+        @Override
+        public void setFromTimestamp(PageBuilder pageBuilder, Column outputColumn, Timestamp value)
+        {
+            pageBuilder.setLong(outputColumn, TimestampCast.asLong(value, toUnit));
+        }
+    }
+
+    final class ToDouble implements ColumnCast
+    {
+        private final TimestampParser parser;
+        private final TimestampUnit fromUnit;
+        private final TimestampUnit toUnit;
+
+        private ToDouble(TimestampParser parser, TimestampUnit fromUnit, TimestampUnit toUnit)
+        {
+            this.parser = parser;
+            this.fromUnit = fromUnit;
+            this.toUnit = toUnit;
+        }
+
+        @Override
+        public void setFromLong(PageBuilder pageBuilder, Column outputColumn, long value)
+        {
+            pageBuilder.setDouble(outputColumn, LongCast.asDouble(value, fromUnit, toUnit));
+        }
+
+        @Override
+        public void setFromDouble(PageBuilder pageBuilder, Column outputColumn, double value)
+        {
+            pageBuilder.setDouble(outputColumn, DoubleCast.asDouble(value, fromUnit, toUnit));
+        }
+
+        @Override
+        public void setFromString(PageBuilder pageBuilder, Column outputColumn, String value)
+        {
+            pageBuilder.setDouble(outputColumn, StringCast.asDouble(value, parser, toUnit));
+        }
+
+        @Override
+        public void setFromTimestamp(PageBuilder pageBuilder, Column outputColumn, Timestamp value)
+        {
+            pageBuilder.setDouble(outputColumn, TimestampCast.asDouble(value, toUnit));
+        }
+    }
+}
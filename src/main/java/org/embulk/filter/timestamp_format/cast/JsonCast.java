@@ -0,0 +1,138 @@
+package org.embulk.filter.timestamp_format.cast;
+
+import org.embulk.filter.timestamp_format.TimestampFormatter;
+import org.embulk.filter.timestamp_format.TimestampParser;
+import org.embulk.filter.timestamp_format.TimestampUnit;
+import org.embulk.spi.DataException;
+import org.embulk.spi.type.DoubleType;
+import org.embulk.spi.type.LongType;
+import org.embulk.spi.type.StringType;
+import org.embulk.spi.type.Type;
+import org.msgpack.value.Value;
+import org.msgpack.value.ValueFactory;
+
+// Cast of values at a json path into the output type of the path, selected once per path by the output type
+// so that a value goes through no type checks. A method per input type casts values of the type.
+public interface JsonCast
+{
+    Value fromLong(long value) throws DataException;
+
+    Value fromDouble(double value) throws DataException;
+
+    Value fromString(CharSequence value) throws DataException;
+
+    // @param formatter required if the output type is string
+    // @param toUnit required if the output type is long or double
+    static JsonCast of(Type outputType, TimestampParser parser, TimestampFormatter formatter,
+                       TimestampUnit fromUnit, TimestampUnit toUnit)
+    {
+        if (outputType instanceof StringType) {
+            return new ToString(parser, formatter, fromUnit);
+        }
+        else if (outputType instanceof LongType) {
+            return new ToLong(parser, fromUnit, toUnit);
+        }
+        else if (outputType instanceof DoubleType) {
+            return new ToDouble(parser, fromUnit, toUnit);
+        }
+        else {
+            throw new IllegalArgumentException(String.format("casting a json path into %s is not available", outputType));
+        }
+    }
+
+    final class ToString implements JsonCast
+    {
+        private final TimestampParser parser;
+        private final TimestampFormatter formatter;
+        private final TimestampUnit fromUnit;
+
+        private ToString(TimestampParser parser, TimestampFormatter formatter, TimestampUnit fromUnit)
+        {
+            this.parser = parser;
+            this.formatter = formatter;
+            this.fromUnit = fromUnit;
+        }
+
+        @Override
+        public Value fromLong(long value)
+        {
+            return ValueFactory.newString(LongCast.asString(value, fromUnit, formatter));
+        }
+
+        @Override
+        public Value fromDouble(double value)
+        {
+            return ValueFactory.newString(DoubleCast.asString(value, fromUnit, formatter));
+        }
+
+        @Override
+        public Value fromString(CharSequence value)
+        {
+            return ValueFactory.newString(StringCast.asString(value, parser, formatter));
+        }
+    }
+
+    final class ToLong implements JsonCast
+    {
+        private final TimestampParser parser;
+        private final TimestampUnit fromUnit;
+        private final TimestampUnit toUnit;
+
+        private ToLong(TimestampParser parser, TimestampUnit fromUnit, TimestampUnit toUnit)
+        {
+            this.parser = parser;
+            this.fromUnit = fromUnit;
+            this.toUnit = toUnit;
+        }
+
+        @Override
+        public Value fromLong(long value)
+        {
+            return ValueFactory.newInteger(LongCast.asLong(value, fromUnit, toUnit));
+        }
+
+        @Override
+        public Value fromDouble(double value)
+        {
+            return ValueFactory.newInteger(DoubleCast.asLong(value, fromUnit, toUnit));
+        }
+
+        @Override
+        public Value fromString(CharSequence value)
+        {
+            return ValueFactory.newInteger(StringCast.asLong(value, parser, toUnit));
+        }
+    }
+
+    final class ToDouble implements JsonCast
+    {
+        private final TimestampParser parser;
+        private final TimestampUnit fromUnit;
+        private final TimestampUnit toUnit;
+
+        private ToDouble(TimestampParser parser, TimestampUnit fromUnit, TimestampUnit toUnit)
+        {
+            this.parser = parser;
+            this.fromUnit = fromUnit;
+            this.toUnit = toUnit;
+        }
+
+        @Override
+        public Value fromLong(long value)
+        {
+            return ValueFactory.newFloat(LongCast.asDouble(value, fromUnit, toUnit));
+        }
+
+        @Override
+        public Value fromDouble(double value)
+        {
+            return ValueFactory.newFloat(DoubleCast.asDouble(value, fromUnit, toUnit));
+        }
+
+        @Override
+        public Value fromString(CharSequence value)
+        {
+            return ValueFactory.newFloat(StringCast.asDouble(value, parser, toUnit));
+        }
+    }
+}
@@ -11,12 +11,13 @@ public class StringCast
 {
     private StringCast() {}
 
-    private static String buildErrorMessage(String value)
+    private static String buildErrorMessage(CharSequence value)
     {
         return String.format("failed to parse string: \"%s\"", value);
     }
 
-    public static String asString(String value, TimestampParser parser, TimestampFormatter formatter) throws DataException
+    // NOTE: value is a CharSequence so that a view of bytes can be parsed without decoding it into a String
+    public static String asString(CharSequence value, TimestampParser parser, TimestampFormatter formatter) throws DataException
     {
         try {
             Timestamp timestamp = parser.parse(value);
@@ -30,7 +31,7 @@ public class StringCast
         }
     }
 
-    public static Timestamp asTimestamp(String value, TimestampParser parser) throws DataException
+    public static Timestamp asTimestamp(CharSequence value, TimestampParser parser) throws DataException
     {
         try {
             return parser.parse(value);
@@ -43,7 +44,7 @@ public class StringCast
         }
     }
 
-    public static long asLong(String value, TimestampParser parser, TimestampUnit toUnit) throws DataException
+    public static long asLong(CharSequence value, TimestampParser parser, TimestampUnit toUnit) throws DataException
     {
         try {
             Timestamp timestamp = parser.parse(value);
@@ -57,7 +58,7 @@ public class StringCast
         }
     }
 
-    public static double asDouble(String value, TimestampParser parser, TimestampUnit toUnit) throws DataException
+    public static double asDouble(CharSequence value, TimestampParser parser, TimestampUnit toUnit) throws DataException
     {
         try {
             Timestamp timestamp = parser.parse(value);
@@ -10,9 +10,13 @@ import org.junit.Rule;
 import org.junit.Test;
 
 import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 public class TestTimestampFormatConverter
@@ -107,5 +111,45 @@ public class TestTimestampFormatConverter
             }
         }
     }
-}
 
+    @Test
+    public void testStrftimeFormatTokenize()
+    {
+        List<StrftimeFormat.Token> tokens = StrftimeFormat.tokenize("%-m/%_3d %::z 100%% %");
+        assertEquals(6, tokens.size());
+        assertEquals('m', tokens.get(0).getConversion());
+        assertEquals("-", tokens.get(0).getFlags());
+        assertEquals("/", tokens.get(1).getLiteral());
+        assertEquals('d', tokens.get(2).getConversion());
+        assertEquals("_", tokens.get(2).getFlags());
+        assertEquals(3, tokens.get(2).getWidth());
+        assertEquals(" ", tokens.get(3).getLiteral());
+        assertEquals('z', tokens.get(4).getConversion());
+        assertEquals(2, tokens.get(4).getColons());
+        assertEquals(" 100% %", tokens.get(5).getLiteral());
+
+        StringBuilder expanded = new StringBuilder();
+        for (StrftimeFormat.Token token : StrftimeFormat.tokenizeExpanded("%FT%T.%3N")) {
+            expanded.append(token.toString());
+        }
+        assertEquals("%Y-%m-%dT%H:%M:%S.%3N", expanded.toString());
+    }
+
+    @Test
+    public void testToJavaFormatWithFlagsAndLiterals()
+    {
+        assertEquals("MM/dd/yyyy HH:mm", TimestampFormatConverter.toJavaFormat("%-m/%-d/%Y %H:%M"));
+        assertNull(TimestampFormatConverter.toJavaFormat("%Y-%m-%dT%H:%M:%S%::z"));
+        assertEquals("yyyy-MM-dd'T'HH:mm:ssZ", TimestampFormatConverter.toJavaFormat("%Y-%m-%dT%H:%M:%S%:z"));
+        assertEquals("'at' HH 'o''clock' '%'", TimestampFormatConverter.toJavaFormat("at %H o'clock %%"));
+        assertEquals("HH'%'", TimestampFormatConverter.toJavaFormat("%H%%"));
+        // a converted format is taken as a java format
+        assertFalse(StrftimeFormat.isRubyFormat(TimestampFormatConverter.toJavaFormat("at %H o'clock %%")));
+        assertTrue(StrftimeFormat.isRubyFormat("at %H o'clock %%"));
+        assertTrue(StrftimeFormat.isRubyFormat("'%H'"));
+        assertEquals(null, TimestampFormatConverter.toJavaFormat("%-m/%-d/%Y %k:%M"));
+        assertEquals(null, TimestampFormatConverter.toJavaFormat("%s"));
+        assertEquals(Arrays.asList("%k"), TimestampFormatConverter.unsupportedDirectives("%-m/%-d/%Y %k:%M"));
+        assertEquals(Arrays.asList(), TimestampFormatConverter.unsupportedDirectives("%-m/%-d/%Y %H:%M"));
+    }
+}
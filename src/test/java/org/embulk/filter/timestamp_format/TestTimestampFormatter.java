@@ -0,0 +1,202 @@
+package org.embulk.filter.timestamp_format;
+
+import org.embulk.spi.time.Timestamp;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.jruby.util.RubyDateFormat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class TestTimestampFormatter
+{
+    public DateTimeZone zone;
+    public Timestamp timestamp;
+
+    @Before
+    public void createResource()
+    {
+        zone = DateTimeZone.forID("Asia/Tokyo");
+        timestamp = Timestamp.ofEpochSecond(1463065359, 123456789);
+    }
+
+    @Test
+    public void testJavaTimeFormatterCompatibleWithJavaFormatter()
+    {
+        String[] formats = {
+            "yyyy-MM-dd HH:mm:ss.SSS Z", "yyyy-MM-dd'T'HH:mm:ss.SSSZZ", "yyyy-MM-dd HH:mm:ss.nnnnnnnnn z",
+            "yyyy-MM-dd HH:mm:ss.nnnnnn ZZZ", "EEE, dd MMM yyyy hh:mm:ss a", "EEEE MMMM d yyyy D H:m:s 'o''clock'",
+        };
+        for (String format : formats) {
+            for (DateTimeZone timezone : new DateTimeZone[] {zone, DateTimeZone.UTC}) {
+                TimestampFormatter javaFormatter = new TimestampFormatter(format, timezone);
+                TimestampFormatter javaTimeFormatter = new TimestampFormatter(format, timezone, true);
+                assertEquals(javaFormatter.format(timestamp), javaTimeFormatter.format(timestamp));
+            }
+        }
+    }
+
+    @Test
+    public void testJavaTimeFormatter()
+    {
+        // java.time formats fractions of S in nano second resolution
+        assertEquals("2016-05-13 00:02:39.123456789 +0900",
+                new TimestampFormatter("yyyy-MM-dd HH:mm:ss.SSSSSSSSS Z", zone, true).format(timestamp));
+        assertEquals("2016-05-12T15:02:39.123456+00:00",
+                new TimestampFormatter("yyyy-MM-dd'T'HH:mm:ss.SSSSSSZZ", DateTimeZone.UTC, true).format(timestamp));
+    }
+
+    @Test
+    public void testZoneOffsetCache()
+    {
+        // formats around DST transitions with cached offsets as the timezone does
+        DateTimeZone newYork = DateTimeZone.forID("America/New_York");
+        String format = "yyyy-MM-dd HH:mm:ss.SSS Z";
+        TimestampFormatter formatter = new TimestampFormatter(format, newYork);
+        org.joda.time.format.DateTimeFormatter javaFormatter = org.joda.time.format.DateTimeFormat.forPattern(format).withZone(newYork);
+        long[] epochSeconds = {1457852399, 1457852400, 1457852401, 1478411999, 1478412000, 1478412001, 1457852400, 0, -1};
+        for (long epochSecond : epochSeconds) {
+            assertEquals(javaFormatter.print(epochSecond * 1000 + 5), formatter.format(Timestamp.ofEpochSecond(epochSecond, 5000000)));
+        }
+        TimestampFormatter jrubyFormatter = new TimestampFormatter("%Y-%m-%d %H:%M:%S.%L %z", newYork);
+        for (long epochSecond : epochSeconds) {
+            assertEquals(javaFormatter.print(epochSecond * 1000 + 5), jrubyFormatter.format(Timestamp.ofEpochSecond(epochSecond, 5000000)));
+        }
+
+        ZoneOffsetCache cache = new ZoneOffsetCache(newYork);
+        assertEquals(-5 * 3600, cache.getOffsetSeconds(1457852399));
+        assertEquals(-4 * 3600, cache.getOffsetSeconds(1457852400));
+        assertEquals(-4 * 3600, cache.getOffsetSecondsFromLocal(1457913600)); // 2016-03-14 00:00:00
+        assertEquals(ZoneOffsetCache.GAP, cache.getOffsetSecondsFromLocal(1457836200)); // 2016-03-13 02:30:00
+        assertEquals(-4 * 3600, cache.getOffsetSecondsFromLocal(1478395800)); // 2016-11-06 01:30:00 is overlapped
+        assertEquals(9 * 3600, new ZoneOffsetCache(DateTimeZone.forOffsetHours(9)).getOffsetSecondsFromLocal(0));
+    }
+
+    @Test
+    public void testFormatTo()
+    {
+        Timestamp timestamp = Timestamp.ofEpochSecond(1463065359, 123456789);
+        String[] formats = {"%Y-%m-%d %H:%M:%S.%N %z", "yyyy-MM-dd HH:mm:ss.SSS Z", "yyyy-MM-dd HH:mm:ss.nnnnnnnnn Z"};
+        for (String format : formats) {
+            for (boolean useJavaTime : new boolean[] {false, true}) {
+                TimestampFormatter formatter = new TimestampFormatter(format, DateTimeZone.forID("Asia/Tokyo"), useJavaTime);
+                StringBuilder buffer = new StringBuilder("prefix ");
+                formatter.formatTo(timestamp, buffer);
+                assertEquals("prefix " + formatter.format(timestamp), buffer.toString());
+                assertEquals(formatter.format(timestamp), formatter.format(timestamp)); // reused buffer
+            }
+        }
+        assertEquals("2016-05-13 00:02:39.123456789 +0900",
+                new TimestampFormatter("%Y-%m-%d %H:%M:%S.%N %z", DateTimeZone.forID("Asia/Tokyo")).format(timestamp));
+    }
+
+    @Test
+    public void testFractionDigits()
+    {
+        Timestamp timestamp = Timestamp.ofEpochSecond(1463065359, 1234567);
+        for (boolean useJavaTime : new boolean[] {false, true}) {
+            assertEquals("2016-05-13 00:02:39.001234567", new TimestampFormatter("yyyy-MM-dd HH:mm:ss.nnnnnnnnn", zone, useJavaTime).format(timestamp));
+            assertEquals("2016-05-13 00:02:39.001234", new TimestampFormatter("yyyy-MM-dd HH:mm:ss.nnnnnn", zone, useJavaTime).format(timestamp));
+            assertEquals("2016-05-13 00:02:39.001", new TimestampFormatter("yyyy-MM-dd HH:mm:ss.nnn", zone, useJavaTime).format(timestamp));
+            assertEquals("0.0 n 2016", new TimestampFormatter("n.n 'n' yyyy", zone, useJavaTime).format(timestamp));
+        }
+        assertEquals("001234 +0900", new TimestampFormatter("nnnnnn Z", DateTimeZone.forID("Asia/Tokyo")).format(timestamp));
+    }
+
+    @Test
+    public void testStrftimeFormatterCompatibleWithRubyDateFormat()
+    {
+        String[] formats = {
+            "%Y-%m-%d %H:%M:%S.%6N %z", "%Y-%m-%dT%H:%M:%S.%L%:z", "%F %T %::z", "%a, %d %b %Y %I:%M:%S %p",
+            "%A %B %-d %j %k %l %P %u %w %s", "%-m/%-d/%y %_H:%_M %05e %10Y %-Y", "%^a %#a %^B %#p %#P %10A %-10A %010b",
+            "%c | %D | %x | %r | %R | %v | %X | %h", "%3N %9N %1L %%%n%t", "100%% %Q",
+        };
+        DateTimeZone[] zones = {zone, DateTimeZone.UTC, DateTimeZone.forID("America/New_York"),
+            DateTimeZone.forOffsetHoursMinutes(5, 30), DateTimeZone.forOffsetHoursMinutes(-3, -30)};
+        long[] epochSeconds = {1463065359, 0, -1, 951782400, 951868800, -62135596800L, -62167219200L, 253402300799L,
+            1457852400, 1478411999, -2208988800L};
+        for (String format : formats) {
+            RubyDateFormat jrubyFormatter = new RubyDateFormat(format, Locale.ENGLISH, true);
+            for (DateTimeZone timezone : zones) {
+                TimestampFormatter formatter = new TimestampFormatter(format, timezone);
+                for (long epochSecond : epochSeconds) {
+                    for (int nano : new int[] {0, 123456789, 5000}) {
+                        jrubyFormatter.setDateTime(new DateTime(epochSecond * 1000, timezone));
+                        jrubyFormatter.setNSec(nano);
+                        assertEquals(format, jrubyFormatter.format(null), formatter.format(Timestamp.ofEpochSecond(epochSecond, nano)));
+                    }
+                }
+            }
+        }
+
+        // falls back to RubyDateFormat as a whole for unverified directives and flags
+        assertNotNull(StrftimeFormatter.of("%Y-%m-%d %H:%M:%S.%6N %z"));
+        assertNull(StrftimeFormatter.of("%Y-%m-%d %Z"));
+        assertNull(StrftimeFormatter.of("%U %W"));
+        assertNull(StrftimeFormatter.of("%^-a"));
+        assertNull(StrftimeFormatter.of("%12N"));
+        assertEquals("Fri May 13 00:02:39 JST 2016", new TimestampFormatter("%a %b %e %H:%M:%S %Z %Y", zone).format(timestamp));
+        // years out of 0 to 9999 are formatted by RubyDateFormat
+        assertEquals("10000-01-01", new TimestampFormatter("%Y-%m-%d", DateTimeZone.UTC).format(Timestamp.ofEpochSecond(253402300800L)));
+    }
+
+    @Test
+    public void testMemoizedOutput()
+    {
+        // values in the same second or day as the last value, including DST transitions and years out of range
+        long[] epochSeconds = {1463065359, 1463065359, 1463065359, 1463065360, 1463065359, 1463100000, 1457852399, 1457852400,
+            1457852400, 253402300800L, 253402300800L, 1463065359};
+        int[] nanos = {123456789, 5000, 0, 999999999, 1000000, 1000000, 0, 7, 8, 1, 2, 123456789};
+        String[] formats = {"%Y-%m-%d %H:%M:%S.%6N %z", "%s.%3N %L %N", "%F %T", "yyyy-MM-dd HH:mm:ss.nnnnnn Z",
+            "nnn ss.SSS Z", "yyyy-MM-dd HH:mm:ss.SSS"};
+        for (String format : formats) {
+            DateTimeZone newYork = DateTimeZone.forID("America/New_York");
+            TimestampFormatter formatter = new TimestampFormatter(format, newYork);
+            for (int i = 0; i < epochSeconds.length; i++) {
+                Timestamp value = Timestamp.ofEpochSecond(epochSeconds[i], nanos[i]);
+                assertEquals(format, new TimestampFormatter(format, newYork).format(value), formatter.format(value));
+            }
+        }
+    }
+
+    @Test
+    public void testIso8601FormatterCompatibleWithOtherFormatters()
+    {
+        String[] formats = {
+            "%Y-%m-%dT%H:%M:%S.%6N%:z", "%Y-%m-%d %H:%M:%S.%N %z", "%F %T", "%Y-%m-%d", "%Y-%m-%dT%H:%M:%S.%LZ",
+            "%Y-%m-%d %H:%M:%S.%3N UTC", "yyyy-MM-dd'T'HH:mm:ss.SSSZ", "yyyy-MM-dd HH:mm:ss.SSS Z", "yyyy-MM-dd'T'HH:mm:ssZZ",
+            "yyyy-MM-dd HH:mm:ss.nnnnnnnnn", "yyyy-MM-dd'T'HH:mm:ss.SSSSSS'Z'", "yyyy-MM-dd", "yyyy-MM-dd HH:mm:ss.S 'UTC'",
+        };
+        DateTimeZone[] zones = {zone, DateTimeZone.UTC, DateTimeZone.forID("America/New_York"),
+            DateTimeZone.forOffsetHoursMinutes(5, 30), DateTimeZone.forOffsetHoursMinutes(-3, -30)};
+        long[] epochSeconds = {1463065359, 1463065359, 1463065360, 0, -1, 951782400, 951868800, -62135596800L, -62135596801L,
+            253402300799L, 253402300800L, 1457852399, 1457852400, 1478411999, 1478412000};
+        for (String format : formats) {
+            assertNotNull(format, Iso8601Formatter.of(format, false));
+            // the generic formatters format the same format following a literal
+            String marked = format.contains("%") ? "x" + format : "'x'" + format;
+            for (boolean useJavaTime : new boolean[] {false, true}) {
+                for (DateTimeZone timezone : zones) {
+                    TimestampFormatter formatter = new TimestampFormatter(format, timezone, useJavaTime);
+                    TimestampFormatter genericFormatter = new TimestampFormatter(marked, timezone, useJavaTime);
+                    for (long epochSecond : epochSeconds) {
+                        for (int nano : new int[] {123456789, 5000, 0}) {
+                            Timestamp value = Timestamp.ofEpochSecond(epochSecond, nano);
+                            assertEquals(format, genericFormatter.format(value).substring(1), formatter.format(value));
+                        }
+                    }
+                }
+            }
+        }
+        assertNull(Iso8601Formatter.of("%Y-%m-%d %H:%M:%S %Z", false));
+        assertNull(Iso8601Formatter.of("yyyy-MM-dd HH:mm:ss z", false));
+        assertEquals("2016-05-13T00:02:39.123456+09:00",
+                new TimestampFormatter("%Y-%m-%dT%H:%M:%S.%6N%:z", zone).format(timestamp));
+    }
+}
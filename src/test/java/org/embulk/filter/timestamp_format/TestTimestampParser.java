@@ -1,17 +1,26 @@
 package org.embulk.filter.timestamp_format;
 
 import org.embulk.EmbulkTestRuntime;
+import org.embulk.config.ConfigException;
 
 import org.embulk.spi.time.Timestamp;
 import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDate;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
 
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 public class TestTimestampParser
@@ -57,4 +66,462 @@ public class TestTimestampParser
             fail();
         }
     }
+
+    @Test
+    public void testJavaParserNanoResolution()
+    {
+        String[] formats = {"dd.MM.yyyy HH:mm:ss.nnnnnnnnn Z", "yyyy-MM-dd HH:mm:ss,nnnnnnnnn", "'nano 'nnnnnnnnn' at 'yyyyMMddHHmmss", "yyyy-MM-dd HH:mm:ss.nnnnnnnnn"};
+        String[] texts = {"13.05.2016 00:02:39.123456789 +0900", "2016-05-12 15:02:39,1", "nano 000000001 at 20160512150239", "1969-12-31 23:59:59.5"};
+        Timestamp[] expectedTimestamps = {expected, Timestamp.ofEpochSecond(1463065359, 100000000), Timestamp.ofEpochSecond(1463065359, 1), Timestamp.ofEpochSecond(-1, 500000000)};
+        for (int i = 0; i < formats.length; i++) {
+            assertEquals(expectedTimestamps[i], new JodaFormatParser(formats[i], zone).parse(texts[i]));
+        }
+        assertEquals(null, new JodaFormatParser("yyyy-MM-dd HH:mm:ss.nnnnnnnnn", zone).parse("2016-05-12 15:02:39."));
+        assertEquals(null, new JodaFormatParser("yyyy-MM-dd HH:mm:ss.nnnnnnnnn", zone).parse("2016-05-12 15:02:39.1234567890"));
+    }
+
+    @Test
+    public void testIso8601Parser()
+    {
+        DateTimeZone tokyo = DateTimeZone.forID("Asia/Tokyo");
+        assertEquals(expected, Iso8601Parser.of("%Y-%m-%d %H:%M:%S.%N %z", zone).parse("2016-05-13 00:02:39.123456789 +09:00"));
+        assertEquals(expected, Iso8601Parser.of("%Y-%m-%dT%H:%M:%S.%N%z", zone).parse("2016-05-12T15:02:39.123456789Z"));
+        assertEquals(expected, Iso8601Parser.of("%Y-%m-%dT%H:%M:%S.%N%z", zone).parse("2016-05-12T15:02:39.123456789UTC"));
+        assertEquals(expected, Iso8601Parser.of("%Y-%m-%d %H:%M:%S.%N", tokyo).parse("2016-05-13 00:02:39.123456789"));
+        assertEquals(expected, Iso8601Parser.of("yyyy-MM-dd HH:mm:ss.nnnnnnnnn Z", zone).parse("2016-05-13 00:02:39.123456789 +0900"));
+        assertEquals(Timestamp.ofEpochSecond(1463065359, 123000000),
+                Iso8601Parser.of("yyyy-MM-dd'T'HH:mm:ss.SSSZ", zone).parse("2016-05-12T15:02:39.123Z"));
+        assertEquals(Timestamp.ofEpochSecond(1462978800, 0), Iso8601Parser.of("%Y-%m-%d", tokyo).parse("2016-05-12"));
+
+        // not supported, falls back to the original parser
+        assertEquals(null, Iso8601Parser.of("%Y-%m-%d %H:%M:%S", zone).parse("2016-5-13 00:02:39"));
+        assertEquals(null, Iso8601Parser.of("%Y-%m-%d %H:%M:%S %z", zone).parse("2016-05-13 00:02:39 +09"));
+        assertEquals(null, Iso8601Parser.of("%Y-%m-%d", zone).parse("2015-02-29"));
+        assertEquals(null, Iso8601Parser.of("yyyy-MM-dd'T'HH:mm:ss.SSSZ", zone).parse("2016-05-12T15:02:39.123456Z"));
+        assertEquals(null, Iso8601Parser.of("%Y/%m/%d", zone));
+        assertEquals(null, Iso8601Parser.of("yyyy-MM-dd z", zone));
+    }
+
+    @Test
+    public void testIso8601ParserCompatibleWithJavaParser()
+    {
+        DateTimeZone tokyo = DateTimeZone.forID("Asia/Tokyo");
+        String[] formats = {"yyyy-MM-dd", "yyyy-MM-dd HH:mm:ss", "yyyy-MM-dd'T'HH:mm:ss.SSSZ", "yyyy-MM-dd HH:mm:ss.nnnnnnnnn ZZ"};
+        String[] texts = {"2016-05-13", "1969-12-31 23:59:59", "2016-02-29T00:02:39.1Z", "2016-05-13 00:02:39.123456789 -05:30"};
+        for (int i = 0; i < formats.length; i++) {
+            TimestampParser parser = new TimestampParser(Arrays.asList(formats[i]), tokyo);
+            DateTimeFormatter javaParser = DateTimeFormat.forPattern(formats[i].replace('n', 'S')).withZone(tokyo);
+            assertEquals(javaParser.parseMillis(texts[i]), parser.parse(texts[i]).toEpochMilli());
+        }
+    }
+
+    @Test
+    public void testAdaptiveOrder()
+    {
+        TimestampParser parser = new TimestampParser(
+                Arrays.asList("yyyy-MM-dd HH:mm:ss", "yyyy-MM-dd HH:mm:ss Z", "yyyy-MM-dd"), zone, new TimestampParser.Options().adaptiveOrder(true));
+        for (int i = 0; i < 10; i++) {
+            assertEquals(expected.getEpochSecond(), parser.parse("2016-05-13 00:02:39 +0900").getEpochSecond());
+        }
+        assertEquals(Timestamp.ofEpochSecond(1463097600, 0), parser.parse("2016-05-13"));
+        assertEquals(Timestamp.ofEpochSecond(1463097759, 0), parser.parse("2016-05-13 00:02:39"));
+    }
+
+    @Test
+    public void testAdaptiveOrderKeepsOverlappingFormatsInOrder()
+    {
+        // "yyyy-MM-dd 'UTC'" in Asia/Tokyo also accepts texts of "yyyy-MM-dd ZZZ", and gives another result
+        DateTimeZone tokyo = DateTimeZone.forID("Asia/Tokyo");
+        TimestampParser parser = new TimestampParser(Arrays.asList("yyyy-MM-dd 'UTC'", "yyyy-MM-dd ZZZ"), tokyo, new TimestampParser.Options().adaptiveOrder(true));
+        for (int i = 0; i < 10; i++) {
+            parser.parse("2016-05-13 Asia/Tokyo");
+        }
+        assertEquals(Timestamp.ofEpochSecond(1463065200, 0), parser.parse("2016-05-13 UTC"));
+    }
+
+    @Test
+    public void testFormatSignature()
+    {
+        FormatSignature ruby = FormatSignature.of("%Y-%m-%d %H:%M:%S.%N %z");
+        assertEquals(true, ruby.matches("2016-05-13 00:02:39.123456789 +09:00"));
+        assertEquals(true, ruby.matches("2016-5-3 0:2:39.1 UTC"));
+        assertEquals(true, ruby.matches("2016-05-1300:02:39.1Z"));
+        assertEquals(false, ruby.matches("2016-05-13 00:02:39 +09:00"));
+        assertEquals(false, ruby.matches("N/A"));
+
+        FormatSignature java = FormatSignature.of("yyyy-MM-dd'T'HH:mm:ss.SSS Z");
+        assertEquals(true, java.matches("2016-05-13T00:02:39.123 +0900"));
+        assertEquals(false, java.matches("2016-05-13T00:02:39.123+0900"));
+        assertEquals(false, java.matches("2016/05/13T00:02:39.123 +0900"));
+        assertEquals(false, java.matches(""));
+    }
+
+    @Test
+    public void testCombinedIso8601Parser()
+    {
+        DateTimeZone tokyo = DateTimeZone.forID("Asia/Tokyo");
+        String[] formats = {"yyyy-MM-dd HH:mm:ss Z", "yyyy-MM-dd'T'HH:mm:ss.SSSZ", "yyyy-MM-dd HH:mm:ss.nnnnnnnnn", "yyyy-MM-dd HH:mm:ss", "yyyy-MM-dd 'UTC'", "yyyy-MM-dd"};
+        String[] texts = {"2016-05-13 00:02:39 +0900", "2016-05-12T15:02:39.123Z", "2016-05-13 00:02:39.123456789", "2016-05-13 00:02:39", "2016-05-13 UTC", "2016-05-13"};
+        TimestampParser parser = new TimestampParser(Arrays.asList(formats), tokyo);
+        for (int i = 0; i < texts.length; i++) {
+            TimestampParser expectedParser = new TimestampParser(Arrays.asList(formats[i]), tokyo);
+            assertEquals(expectedParser.parse(texts[i]), parser.parse(texts[i]));
+        }
+        try {
+            parser.parse("2016-05-13 00:02:39.123 +0900");
+            fail();
+        }
+        catch (IllegalArgumentException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testCompiledFormatParser()
+    {
+        DateTimeZone tokyo = DateTimeZone.forID("Asia/Tokyo");
+        assertEquals(expected, CompiledFormatParser.of("%d/%b/%Y:%H:%M:%S.%N %z", zone).parse("13/May/2016:00:02:39.123456789 +0900"));
+        assertEquals(expected, CompiledFormatParser.of("%a, %d %B %Y %I:%M:%S.%L %p %:z", zone).parse("Fri, 13 May 2016 12:02:39.123456789 AM +09:00"));
+        assertEquals(expected, CompiledFormatParser.of("%Y%m%d%H%M%S.%N", tokyo).parse("20160513000239.123456789"));
+        assertEquals(expected, CompiledFormatParser.of("%Y-%j %T.%N", tokyo).parse("2016-134 00:02:39.123456789"));
+        assertEquals(expected, CompiledFormatParser.of("dd/MMM/yyyy:HH:mm:ss.nnnnnnnnn Z", zone).parse("13/May/2016:00:02:39.123456789 +0900"));
+        assertEquals(Timestamp.ofEpochSecond(1463065359, 0), CompiledFormatParser.of("%y-%m-%e %k:%M:%S", tokyo).parse("16-05-13  0:02:39"));
+        assertEquals(Timestamp.ofEpochSecond(1463065320, 0), CompiledFormatParser.of("%-m/%-d/%Y %k:%M", tokyo).parse("5/13/2016  0:02"));
+        assertEquals(Timestamp.ofEpochSecond(1463065359, 0), CompiledFormatParser.of("%c", tokyo).parse("Fri May 13 00:02:39 2016"));
+
+        // not supported, falls back to the original parser
+        assertEquals(null, CompiledFormatParser.of("%a %Y-%m-%d", zone).parse("Mon 2016-05-13"));
+        assertEquals(null, CompiledFormatParser.of("%Y-%m-%d %H:%M:%S", zone).parse("2016-05-13 24:02:39"));
+        assertEquals(null, CompiledFormatParser.of("%Y-%m-%d %H:%M:%S %z", zone).parse("2016-05-13 00:02:39 JST"));
+        assertEquals(null, CompiledFormatParser.of("%m/%d %H:%M", zone));
+        assertEquals(null, CompiledFormatParser.of("%Y-%m-%d %H:%M:%S %Z", zone));
+        assertEquals(null, CompiledFormatParser.of("yy-MM-dd", zone));
+        assertEquals(null, CompiledFormatParser.of("%Y-%m-%d %H:%M:%S.%3N", zone));
+
+        // adjacent numbers of java formats are read in the widths of joda, e.g., M of yyyyMd reads 2 digits
+        assertEquals(Timestamp.ofEpochSecond(1477926000, 0), CompiledFormatParser.of("yyyyMd", tokyo).parse("2016111"));
+        assertEquals(Timestamp.ofEpochSecond(1463066589, 0), CompiledFormatParser.of("yyyy-MM-dd HHms", tokyo).parse("2016-05-13 00239"));
+    }
+
+    @Test
+    public void testCompiledFormatParserCompatibleWithJavaParser()
+    {
+        DateTimeZone tokyo = DateTimeZone.forID("Asia/Tokyo");
+        String[] formats = {"dd/MMM/yyyy:HH:mm:ss Z", "EEE, dd MMMM yyyy hh:mm:ss.SSS a ZZ", "yyyyMMddHHmmss", "yyyy/M/d H:m:s", "yyyy-DDD",
+            "yyyyMd", "yyyyMdd", "yyyy-MM-dd HHms", "yyyyMMddHms", "yyyyMMdddHH"};
+        String[] texts = {"13/May/2016:00:02:39 +0900", "Fri, 13 May 2016 12:02:39.12 PM -05:30", "19691231235959", "2016/5/3 4:2:9", "2016-060",
+            "2016111", "2016111", "2016-05-13 00239", "2016051304259", "20160501304"};
+        for (int i = 0; i < formats.length; i++) {
+            TimestampParser parser = new TimestampParser(Arrays.asList(formats[i]), tokyo);
+            DateTimeFormatter javaParser = DateTimeFormat.forPattern(formats[i]).withZone(tokyo).withLocale(java.util.Locale.ENGLISH);
+            assertEquals(javaParser.parseMillis(texts[i]), parser.parse(texts[i]).toEpochMilli());
+            assertEquals(parser.parse(texts[i]), CompiledFormatParser.of(formats[i], tokyo).parse(texts[i]));
+        }
+    }
+
+    @Test
+    public void testJavaTimeParser()
+    {
+        DateTimeZone tokyo = DateTimeZone.forID("Asia/Tokyo");
+        String[] formats = {"yyyy-MM-dd HH:mm:ss.SSSSSSSSS Z", "yyyy-MM-dd HH:mm:ss.nnnnnnnnn ZZ", "dd/MMM/yyyy:HH:mm:ss.SSSSSS Z", "yyyyMMddHHmmss.SSS", "EEE MMM dd HH:mm:ss.SSSSSSSSS ZZZ yyyy"};
+        String[] texts = {"2016-05-13 00:02:39.123456789 +0900", "2016-05-12 15:02:39.123456789 Z", "13/May/2016:00:02:39.123456 +09:00", "20160513000239.123", "Fri May 13 00:02:39.123456789 Asia/Tokyo 2016"};
+        Timestamp[] expectedTimestamps = {expected, expected, Timestamp.ofEpochSecond(1463065359, 123456000), Timestamp.ofEpochSecond(1463065359, 123000000), expected};
+        for (int i = 0; i < formats.length; i++) {
+            TimestampParser parser = new TimestampParser(Arrays.asList(formats[i]), tokyo, new TimestampParser.Options().useJavaTime(true));
+            assertEquals(expectedTimestamps[i], parser.parse(texts[i]));
+        }
+
+        // invalid dates and local times in a DST gap are rejected as Joda-Time does, not clamped or shifted
+        String[] invalidTexts = {"2016/02/30", "2016/02/31", "2015/02/29", "2016/04/31", "2016/06/31", "2016/09/31", "2016/11/31"};
+        for (String text : invalidTexts) {
+            assertNull(text, new JavaTimeFormatParser("yyyy/MM/dd", tokyo).parse(text));
+            try {
+                DateTimeFormat.forPattern("yyyy/MM/dd").withZone(tokyo).parseMillis(text);
+                fail(text);
+            }
+            catch (IllegalArgumentException ex) {
+                // expected
+            }
+        }
+        assertEquals(Timestamp.ofEpochSecond(1456671600, 0), new JavaTimeFormatParser("yyyy/MM/dd", tokyo).parse("2016/02/29"));
+        assertEquals(Timestamp.ofEpochSecond(1456671600, 0), new JavaTimeFormatParser("YYYY/MM/dd", tokyo).parse("2016/02/29"));
+        DateTimeZone newYork = DateTimeZone.forID("America/New_York");
+        assertNull(new JavaTimeFormatParser("yyyy-MM-dd HH:mm:ss", newYork).parse("2016-03-13 02:30:00"));
+        assertEquals(Timestamp.ofEpochSecond(1457852400, 0), new JavaTimeFormatParser("yyyy-MM-dd HH:mm:ss", newYork).parse("2016-03-13 03:00:00"));
+
+        // years are read as Joda-Time reads them, e.g., two digits of yy are a year from 80 years ago
+        int firstYear = (new LocalDate().getYear() - 80) % 100; // the first year of the window
+        String[][] yearCases = {
+                {"MM/dd/yy", "12/31/99"}, {"MM/dd/yy", "12/31/00"}, {"MM/dd/yy", "12/31/2016"}, {"MM/dd/yy", "12/31/016"},
+                {"MM/dd/yy", String.format("01/01/%02d", firstYear)}, {"MM/dd/yy", String.format("12/31/%02d", (firstYear + 99) % 100)},
+                {"yyMMdd", "991231"}, {"yyyy-MM-dd", "16-05-13"}, {"yyyy-MM-dd", "+2016-05-13"}, {"yyyy-MM-dd", "-2016-05-13"},
+        };
+        for (String[] yearCase : yearCases) {
+            // NOTE: compare with millis of Joda-Time, as JodaFormatParser overflows before 1677
+            long expectedMillis = DateTimeFormat.forPattern(yearCase[0]).withZone(tokyo).parseMillis(yearCase[1]);
+            Timestamp timestamp = new JavaTimeFormatParser(yearCase[0], tokyo).parse(yearCase[1]);
+            assertEquals(yearCase[0] + " " + yearCase[1], expectedMillis, timestamp.getEpochSecond() * 1000);
+        }
+
+        // the date is 1970-01-01 if not given, and an offset is required if the format has
+        TimestampParser parser = new TimestampParser(Arrays.asList("HH:mm:ss Z", "HH:mm:ss"), zone, new TimestampParser.Options().useJavaTime(true));
+        assertEquals(Timestamp.ofEpochSecond(3600, 0), parser.parse("10:00:00 +0900"));
+        assertEquals(Timestamp.ofEpochSecond(36000, 0), parser.parse("10:00:00"));
+        try {
+            parser.parse("10:00:00 JST");
+            fail();
+        }
+        catch (IllegalArgumentException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testValidateTimestampParser()
+    {
+        for (String timestampParser : new String[] {"auto", "auto_java", "auto_fastest", "java_time"}) {
+            TimestampParser.validateTimestampParser(timestampParser);
+        }
+        for (String timestampParser : new String[] {"auto_fastst", "javatime", ""}) {
+            try {
+                TimestampParser.validateTimestampParser(timestampParser);
+                fail(timestampParser);
+            }
+            catch (ConfigException ex) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testParseCache()
+    {
+        TimestampParser parser = new TimestampParser(Arrays.asList("yyyy-MM-dd"), zone, new TimestampParser.Options().cacheSize(2));
+        assertEquals(Timestamp.ofEpochSecond(1463097600, 0), parser.parse("2016-05-13"));
+        assertEquals(Timestamp.ofEpochSecond(1463097600, 0), parser.parse("2016-05-13"));
+        parser.parse("2016-05-14");
+        parser.parse("2016-05-13");
+        parser.parse("2016-05-15"); // evicts 2016-05-14
+        parser.parse("2016-05-14");
+        assertEquals(2, parser.getCacheHits());
+        assertEquals(4, parser.getCacheMisses());
+        for (int i = 0; i < 2; i++) {
+            try {
+                parser.parse("2016/05/13");
+                fail();
+            }
+            catch (IllegalArgumentException ex) {
+                // expected
+            }
+        }
+        assertEquals(6, parser.getCacheMisses());
+
+        assertEquals(-1, new TimestampParser(Arrays.asList("yyyy-MM-dd"), zone).getCacheHits());
+    }
+
+    @Test
+    public void testDetectFormat()
+    {
+        List<String> formats = TimestampParser.expandAutoFormat(Arrays.asList("dd.MM.yyyy", "auto"));
+        assertEquals("dd.MM.yyyy", formats.get(0));
+        assertEquals("yyyy-MM-dd HH:mm:ss.nnnnnnnnn Z", formats.get(1));
+
+        TimestampParser parser = new TimestampParser(Arrays.asList("dd.MM.yyyy", "auto"), zone);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(null, parser.getDetectedFormat());
+            assertEquals(Timestamp.ofEpochSecond(1463097600 + i, 0), parser.parse(String.format("2016-05-13 00:%02d:%02d", i / 60, i % 60)));
+        }
+        assertEquals("yyyy-MM-dd HH:mm:ss", parser.getDetectedFormat());
+        assertEquals(Timestamp.ofEpochSecond(1463097600, 0), parser.parse("2016-05-13"));
+        assertEquals(Timestamp.ofEpochSecond(1463097600, 0), parser.parse("13.05.2016"));
+    }
+
+    @Test
+    public void testEngineCalibration()
+    {
+        List<String> formats = Arrays.asList("%Y-%m-%d", "%Y/%m/%d", "%s");
+        // parsers advance a clock instead of taking time: the ruby parser 1000 ns a value, java parsers 100 ns
+        final long[] clock = new long[1];
+        EngineCalibration calibration = new EngineCalibration(formats, javaFormat -> {
+            FormatParser javaParser = new JodaFormatParser(javaFormat, zone);
+            return text -> {
+                clock[0] += 100;
+                return javaParser.parse(text);
+            };
+        }, () -> clock[0]);
+        FormatParser rubyParser = new JodaFormatParser("yyyy-MM-dd", zone);
+        FormatParser slowParser = text -> {
+            clock[0] += 1000;
+            return rubyParser.parse(text);
+        };
+        for (String text : new String[] {"2016-05-13", "2016/05/13", "13.05.2016"}) {
+            calibration.parse(0, slowParser, text);
+            calibration.parse(1, slowParser, text); // differs on 2016/05/13
+            calibration.parse(2, slowParser, text);
+        }
+        assertEquals(true, calibration.isJavaFaster(0));
+        assertEquals(false, calibration.isJavaFaster(1));
+        assertEquals(false, calibration.isJavaFaster(2)); // %s has no java format
+        assertEquals("\"%Y-%m-%d\" uses java parser (ruby 1000 ns/value, java \"yyyy-MM-dd\" 100 ns/value)",
+                calibration.describe(0, "%Y-%m-%d"));
+        assertEquals("\"%Y/%m/%d\" uses ruby parser (ruby 1000 ns/value, java \"yyyy/MM/dd\" 100 ns/value, results differed)",
+                calibration.describe(1, "%Y/%m/%d"));
+        assertEquals("\"%s\" uses ruby parser, no java format", calibration.describe(2, "%s"));
+
+        // a java parser slower than the ruby parser is not chosen even if they agree
+        clock[0] = 0;
+        calibration = new EngineCalibration(Arrays.asList("%Y-%m-%d"), javaFormat -> text -> {
+            clock[0] += 2000;
+            return rubyParser.parse(text);
+        }, () -> clock[0]);
+        calibration.parse(0, slowParser, "2016-05-13");
+        assertEquals(false, calibration.isJavaFaster(0));
+    }
+
+    @Test
+    public void testVerifyingTimestampParser()
+    {
+        // joda parsers stand for jruby parsers of the original formats
+        FormatParser original = new JodaFormatParser("yyyy-MM-dd HH:mm:ss", zone);
+        VerifyingTimestampParser parser = new VerifyingTimestampParser("col", Arrays.asList("yyyy-MM-dd HH:mm:ss"),
+                Arrays.asList(original), zone, 0.5, -1);
+        for (int i = 0; i < 4; i++) {
+            assertEquals(Timestamp.ofEpochSecond(1463097600 + i, 0), parser.parse("2016-05-13 00:00:0" + i));
+        }
+        assertEquals(2, parser.getVerified());
+        assertEquals(0, parser.getMismatches());
+
+        // a wrong conversion
+        parser = new VerifyingTimestampParser("col", Arrays.asList("yyyy-dd-MM"), Arrays.asList(new JodaFormatParser("yyyy-MM-dd", zone)), zone, 1.0, 1);
+        parser.parse("2016-05-05");
+        parser.parse("2016-05-06");
+        assertEquals(1, parser.getMismatches());
+        try {
+            parser.parse("2016-05-07");
+            fail();
+        }
+        catch (IllegalStateException ex) {
+            // expected
+        }
+
+        // the original parser is not a TimestampParser with fast paths, which would agree with the converted format
+        // even if jruby does not. Here jruby is supposed to read 2016-05-13 01:02:03 in another way
+        Timestamp jrubyResult = Timestamp.ofEpochSecond(0, 0);
+        parser = new VerifyingTimestampParser("col", Arrays.asList("yyyy-MM-dd HH:mm:ss"), Arrays.asList(text -> jrubyResult), zone, 1.0, -1);
+        Timestamp fastPathResult = new TimestampParser(Arrays.asList("%Y-%m-%d %H:%M:%S"), zone).parse("2016-05-13 01:02:03");
+        assertEquals(fastPathResult, parser.parse("2016-05-13 01:02:03"));
+        assertEquals(1, parser.getMismatches());
+    }
+
+    @Test
+    public void testFormatPlans() throws Exception
+    {
+        assertTrue(FormatPlans.signatureOf("%Y-%m-%d") == FormatPlans.signatureOf("%Y-%m-%d"));
+
+        // jruby parsers are owned by a task, and returned to the pool for tasks in any thread
+        TimestampParser builder = new TimestampParser(Arrays.asList("%Y-%m-%d"), zone);
+        String format = "%d.%m.%Y pooled"; // not used by other tests
+        int[] builtParsers = new int[1];
+        Function<String, org.embulk.spi.time.TimestampParser> countingBuilder = f -> {
+            builtParsers[0]++;
+            return builder.createTimestampParser(f, zone);
+        };
+        org.embulk.spi.time.TimestampParser first = FormatPlans.acquireJrubyParser(format, zone, countingBuilder);
+        assertTrue(first != FormatPlans.acquireJrubyParser(format, zone, countingBuilder));
+        Thread thread = new Thread(() -> FormatPlans.releaseJrubyParser(format, zone, first));
+        thread.start();
+        thread.join();
+        assertTrue(first == FormatPlans.acquireJrubyParser(format, zone, countingBuilder));
+        assertEquals(2, builtParsers[0]);
+
+        // idle parsers are bounded per format
+        List<org.embulk.spi.time.TimestampParser> parsers = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            parsers.add(FormatPlans.acquireJrubyParser(format, zone, countingBuilder));
+        }
+        for (org.embulk.spi.time.TimestampParser parser : parsers) {
+            FormatPlans.releaseJrubyParser(format, zone, parser);
+        }
+        builtParsers[0] = 0;
+        for (int i = 0; i < 20; i++) {
+            FormatPlans.acquireJrubyParser(format, zone, countingBuilder);
+        }
+        assertEquals(4, builtParsers[0]);
+
+        // a parser returns its jruby parsers on close()
+        TimestampParser closedParser = new TimestampParser(Arrays.asList("%m.%d.%Y closed"), zone);
+        closedParser.close();
+        builtParsers[0] = 0;
+        FormatPlans.acquireJrubyParser("%m.%d.%Y closed", zone, countingBuilder);
+        assertEquals(0, builtParsers[0]);
+
+        // parsers of tasks share shadows
+        TimestampParser parser = new TimestampParser(Arrays.asList("yyyy-MM-dd", "yyyy/MM/dd"), zone, new TimestampParser.Options().adaptiveOrder(true));
+        assertEquals(Timestamp.ofEpochSecond(1463097600, 0), parser.parse("2016/05/13"));
+        int[] built = new int[1];
+        FormatPlans.shadowsOf("joda", Arrays.asList("yyyy-MM-dd", "yyyy/MM/dd"), zone, () -> {
+            built[0]++;
+            return null;
+        });
+        assertEquals(0, built[0]);
+    }
+
+    @Test
+    public void testEpochParser()
+    {
+        assertEquals(Timestamp.ofEpochSecond(1436713200, 0), EpochParser.of("%s").parse("1436713200"));
+        assertEquals(Timestamp.ofEpochSecond(1436713200, 123000000), EpochParser.of("%Q").parse("1436713200123"));
+        assertEquals(Timestamp.ofEpochSecond(-2, 877000000), EpochParser.of("%Q").parse("-1123"));
+        assertEquals(null, EpochParser.of("%s").parse("+123"));
+        assertEquals(null, EpochParser.of("%Q").parse("+123"));
+        assertEquals(null, EpochParser.of("%s").parse("1436713200.5"));
+        assertEquals(null, EpochParser.of("%s").parse("2015-07-12"));
+        assertEquals(null, EpochParser.of("%s").parse("1234567890123456789"));
+        assertEquals(null, EpochParser.of("%Y%m%d"));
+
+        TimestampParser parser = new TimestampParser(Arrays.asList("%Y-%m-%d"), zone, new TimestampParser.Options().fromStringUnit(TimestampUnit.MilliSecond));
+        assertEquals(Timestamp.ofEpochSecond(1436713200, 123456000), parser.parse("1436713200123.456"));
+        assertEquals(Timestamp.ofEpochSecond(1436659200, 0), parser.parse("2015-07-12")); // not a number, parsed with formats
+        parser = new TimestampParser(Arrays.asList("%Y-%m-%d"), zone, new TimestampParser.Options().fromStringUnit(TimestampUnit.Second));
+        assertEquals(Timestamp.ofEpochSecond(-1, 500000000), parser.parse("-0.5"));
+    }
+
+    @Test
+    public void testDatePrefixCache()
+    {
+        // texts in time order across DST transitions, the date prefix and its offset are reused
+        DateTimeZone newYork = DateTimeZone.forID("America/New_York");
+        String format = "yyyy-MM-dd HH:mm:ss";
+        Iso8601Parser parser = Iso8601Parser.of(format, newYork);
+        DateTimeFormatter javaParser = DateTimeFormat.forPattern(format).withZone(newYork);
+        String[] texts = {
+            "2016-03-12 23:59:59", "2016-03-13 00:00:00", "2016-03-13 01:59:59", "2016-03-13 03:00:00",
+            "2016-03-14 12:00:00", "2016-03-14 13:00:00", "2016-11-06 00:30:00", "2016-11-06 03:00:00", "2016-11-07 01:30:00",
+        };
+        for (String text : texts) {
+            assertEquals(javaParser.parseMillis(text), parser.parse(text).toEpochMilli());
+        }
+        assertEquals(null, parser.parse("2016-03-13 02:30:00")); // DST gap, falls back to the original parser
+        assertEquals(null, parser.parse("2016-03-13 24:00:00"));
+
+        DatePrefixCache cache = new DatePrefixCache(newYork);
+        assertEquals(1457827200, cache.parseDate("2016-03-13 00:00:00"));
+        assertEquals(Iso8601Parser.DEFAULT_ZONE_OFFSET, cache.getDayOffset(1457827200));
+        assertEquals(1458086400, cache.parseDate("2016-03-16"));
+        assertEquals(-4 * 3600, cache.getDayOffset(1458086400 + 86399));
+        assertEquals(Iso8601Parser.DEFAULT_ZONE_OFFSET, cache.getDayOffset(1458086400 + 86400));
+    }
+
+    @Test
+    public void testParseAsciiCharSequence()
+    {
+        AsciiCharSequence text = new AsciiCharSequence();
+        TimestampParser parser = new TimestampParser(Arrays.asList("yyyy-MM-dd HH:mm:ss.nnnnnnnnn Z", "dd/MMM/yyyy:HH:mm:ss.nnnnnnnnn Z"), zone);
+        assertEquals(true, text.reset(java.nio.ByteBuffer.wrap("2016-05-13 00:02:39.123456789 +0900".getBytes())));
+        assertEquals(expected, parser.parse(text));
+        assertEquals(true, text.reset(java.nio.ByteBuffer.wrap("13/May/2016:00:02:39.123456789 +0900".getBytes())));
+        assertEquals("13/May/2016:00:02:39.123456789 +0900", text.toString());
+        assertEquals(expected, parser.parse(text));
+        assertEquals(false, text.reset(java.nio.ByteBuffer.wrap("2016\u5e745\u670813\u65e5".getBytes(java.nio.charset.StandardCharsets.UTF_8))));
+    }
 }